@@ -0,0 +1,59 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long triggering a sound takes on the tick thread with each audio engine, through the null mixer.
+ * Run with -prof gc to see what each engine allocates per play.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {NullMixer.ENABLE_ARG, NullMixer.CLIP_ARG, NullMixer.SOURCE_LINE_ARG})
+public class AudioClipManagerBenchmark
+{
+    private static final long SCHEDULE_AHEAD = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Param({"CLIP_PER_TICK", "CLIP_POOL", "MIXER"})
+    public AudioEngineOption engine;
+
+    private AudioClipManager audioClipManager;
+    private SoundHandle handle;
+
+    @Setup
+    public void setUp()
+    {
+        audioClipManager = new AudioClipManager(new TelemetryRecorder());
+        audioClipManager.loadAllAudioFiles();
+        audioClipManager.setEngine(engine);
+        handle = audioClipManager.getHandle(TickSoundOption.TICK_SNARE);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        audioClipManager.shutDown();
+    }
+
+    @Benchmark
+    public void play()
+    {
+        audioClipManager.play(handle, AudioClipManager.PLAY_NOW);
+    }
+
+    @Benchmark
+    public void playScheduled()
+    {
+        audioClipManager.play(handle, System.nanoTime() + SCHEDULE_AHEAD);
+    }
+
+    @Benchmark
+    public void playByName()
+    {
+        audioClipManager.play("tick-snare");
+    }
+}
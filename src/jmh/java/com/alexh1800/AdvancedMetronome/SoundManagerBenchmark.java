@@ -0,0 +1,63 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long SoundManager takes to go from a (beat, tick) to the sound being handed to the audio thread,
+ * cycling through a two beat, four tick pattern like the metronome does. The audio thread plays them through the
+ * mixer meanwhile, and drops what it can't keep up with like it would a stalled device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {NullMixer.ENABLE_ARG, NullMixer.CLIP_ARG, NullMixer.SOURCE_LINE_ARG})
+public class SoundManagerBenchmark
+{
+    private AudioClipManager audioClipManager;
+    private AudioDispatcher audioDispatcher;
+    private AudioDispatcher.Producer producer;
+    private SoundManager soundManager;
+    private int tick = 0;
+
+    @Setup
+    public void setUp()
+    {
+        AdvancedMetronomeConfig config = new AdvancedMetronomeConfig()
+        {
+            @Override
+            public String customPattern()
+            {
+                return "kick-thump, tick-hihat, tick-snare, tick-hihat | clap-high, tick-hihat, off, tick-hihat";
+            }
+        };
+
+        TelemetryRecorder telemetry = new TelemetryRecorder();
+        audioClipManager = new AudioClipManager(telemetry);
+        audioClipManager.loadAllAudioFiles();
+        audioDispatcher = new AudioDispatcher(audioClipManager, telemetry);
+        audioDispatcher.start();
+        producer = audioDispatcher.newProducer();
+        audioClipManager.setEngine(AudioEngineOption.MIXER);
+
+        soundManager = new SoundManager(config, audioClipManager);
+        soundManager.updatePattern();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        audioDispatcher.stop();
+        soundManager.shutDown();
+    }
+
+    @Benchmark
+    public void playSound()
+    {
+        tick = (tick % 8) + 1;
+        soundManager.playSound(producer, tick > 4 ? 2 : 1, (tick - 1) % 4 + 1, AudioClipManager.PLAY_NOW);
+    }
+}
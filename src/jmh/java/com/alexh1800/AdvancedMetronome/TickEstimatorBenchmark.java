@@ -0,0 +1,62 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The drift correction LocalTickManager does for every game tick: adding the arrival to the estimator,
+ * recording it in the histograms and predicting the next local tick.
+ * Arrivals follow a slightly fast server with a couple of milliseconds of jitter and the odd lag spike.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickEstimatorBenchmark
+{
+    private static final int TRACE_LENGTH = 1024;
+
+    private static final long SERVER_PERIOD = TimeUnit.MICROSECONDS.toNanos(599_900);
+
+    // How far each arrival lands from the server's actual tick
+    private final long[] arrivalNoise = new long[TRACE_LENGTH];
+    private TickEstimator estimator;
+    private TickHistogram intervals;
+    private long serverTick;
+    private long lastArrival;
+    private int next = 0;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < TRACE_LENGTH; i++)
+        {
+            long jitter = (long) (random.nextGaussian() * TimeUnit.MILLISECONDS.toNanos(2));
+            long spike = i % 97 == 0 ? TimeUnit.MILLISECONDS.toNanos(60) : 0;
+            arrivalNoise[i] = jitter + spike;
+        }
+
+        estimator = new TickEstimator();
+        intervals = new TickHistogram(TickEstimator.NOMINAL_PERIOD);
+        serverTick = System.nanoTime();
+        lastArrival = serverTick;
+    }
+
+    @Benchmark
+    public long addArrival()
+    {
+        serverTick += SERVER_PERIOD;
+        long arrival = serverTick + arrivalNoise[next];
+        next = (next + 1) % TRACE_LENGTH;
+
+        intervals.record(arrival - lastArrival);
+        lastArrival = arrival;
+        estimator.addArrival(arrival);
+        return estimator.predictAfter(arrival + estimator.getPeriod() / 2);
+    }
+}
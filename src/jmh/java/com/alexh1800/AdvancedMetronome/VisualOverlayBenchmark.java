@@ -0,0 +1,78 @@
+package com.alexh1800.AdvancedMetronome;
+
+import net.runelite.api.Client;
+import net.runelite.api.Player;
+import net.runelite.api.Point;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long one frame of the overlay takes to draw onto an offscreen image the size of the fixed game viewport.
+ * The client and player are proxies that only answer what render() asks for, the rest of the client isn't needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class VisualOverlayBenchmark
+{
+    @Param({"OFF", "SWEEP_BAR", "PULSE_RING"})
+    public PhaseIndicatorOption phaseIndicator;
+
+    private BufferedImage canvas;
+    private Graphics2D graphics;
+    private VisualOverlay overlay;
+    private MetronomeState state;
+
+    @Setup
+    public void setUp()
+    {
+        canvas = new BufferedImage(765, 503, BufferedImage.TYPE_INT_RGB);
+        graphics = canvas.createGraphics();
+
+        Point above = new Point(382, 200);
+        Player player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] {Player.class},
+                (proxy, method, args) -> method.getName().equals("getCanvasTextLocation") ? above : null);
+        Client client = (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[] {Client.class},
+                (proxy, method, args) -> method.getName().equals("getLocalPlayer") ? player : null);
+
+        PhaseIndicatorOption indicator = phaseIndicator;
+        AdvancedMetronomeConfig config = new AdvancedMetronomeConfig()
+        {
+            @Override
+            public PhaseIndicatorOption phaseIndicator()
+            {
+                return indicator;
+            }
+        };
+
+        // A day long tick half way through, so the phase indicators are drawn about half full for the whole run
+        TickClock tickClock = new TickClock();
+        long halfDay = TimeUnit.HOURS.toNanos(12);
+        long now = System.nanoTime();
+        tickClock.publish(new TickPrediction(now - halfDay, now + halfDay, TickEstimator.NOMINAL_PERIOD, 1));
+
+        state = new MetronomeState();
+        overlay = new VisualOverlay(client, tickClock, state, config);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public Dimension render()
+    {
+        // Two digit ticks so the atlas draws more than one glyph
+        state.setTickCount(state.getTickCount() % 16 + 1);
+        return overlay.render(graphics);
+    }
+}
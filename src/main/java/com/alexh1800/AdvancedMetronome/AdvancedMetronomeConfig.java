@@ -97,6 +97,14 @@ public interface AdvancedMetronomeConfig extends Config
 	)
 	default int textOffset(){ return 200; }
 
+	@ConfigItem(
+			keyName = "phaseIndicator",
+			name = "Tick Progress",
+			description = "Animates how far through the current tick you are, as a bar under the tick number or a ring closing in on it",
+			position = 5
+	)
+	default PhaseIndicatorOption phaseIndicator(){ return PhaseIndicatorOption.OFF; }
+
 	////////////////////////////////////////////////
 	//////////////  Hotkey Settings  ///////////////
 	////////////////////////////////////////////////
@@ -352,18 +360,77 @@ public interface AdvancedMetronomeConfig extends Config
 	default TickSoundOption beat2Tick8Sound() { return TickSoundOption.TICK_HIHAT; }
 
 
+	////////////////////////////////////////////////
+	//////////////  Custom Pattern  ////////////////
+	////////////////////////////////////////////////
+
+	@ConfigSection(
+			name = "Custom Pattern",
+			description = "A pattern of any length with any number of beats, replaces Beat 1 and Beat 2 when set",
+			position = 35
+	)
+	String customPatternSettings = "customPatternSettings";
+
+
+	@ConfigItem(
+			keyName = "customPattern",
+			name = "Custom Pattern",
+			description = "One beat per line (or separated by |), ticks separated by commas, sounds layered on a tick joined by + and gain or pan after @, e.g. kick-thump+tick-hihat@+3db, tick-hihat@l50, off, tick-hihat@-6db. Leave empty to use Beat 1 and Beat 2",
+			section = customPatternSettings,
+			position = 36
+	)
+	default String customPattern() { return ""; }
+
+	@ConfigItem(
+			keyName = "sampleDirectory",
+			name = "Sample Folder",
+			description = "A folder of your own .wav files to use in the custom pattern by file name, e.g. my-click for my-click.wav. Files added or changed while the client is running are picked up",
+			section = customPatternSettings,
+			position = 37
+	)
+	default String sampleDirectory() { return ""; }
+
+
 	////////////////////////////////////////////////
 	/////////////////  Advanced  ///////////////////
 	////////////////////////////////////////////////
 
-	/*
 	@ConfigSection(
 			name = "Advanced Settings",
 			description = "Advanced",
 			position = 40
 	)
 	String advancedSettings = "advancedSettings";
-	*/
+
+
+	@ConfigItem(
+			keyName = "audioEngine",
+			name = "Audio Engine",
+			description = "Clip per tick opens a new audio line for every sound, clip pool reuses lines opened at startup, mixer keeps one line open and mixes sounds into it",
+			section = advancedSettings,
+			position = 41
+	)
+	default AudioEngineOption audioEngine() { return AudioEngineOption.CLIP_PER_TICK; }
+
+	@ConfigItem(
+			keyName = "recordTelemetry",
+			name = "Record Telemetry",
+			description = "Writes tick timing and sound loading records to the advanced-metronome folder in the RuneLite directory",
+			section = advancedSettings,
+			position = 42
+	)
+	default boolean recordTelemetry() { return false; }
+
+	@Range(min = -200, max = 200)
+	@Units(Units.MILLISECONDS)
+	@ConfigItem(
+			keyName = "audioOffset",
+			name = "Audio Offset",
+			description = "With tick smoothing, plays sounds this much earlier on top of the measured audio latency. Negative plays them later, which only the Mixer engine can do, the Clip engines never play a sound after its tick",
+			section = advancedSettings,
+			position = 43
+	)
+	default int audioOffset() { return 0; }
 
 
 
@@ -10,11 +10,15 @@ import net.runelite.api.events.GameTick;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.EventBus;
 import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.input.KeyManager;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
 import net.runelite.client.ui.overlay.OverlayManager;
 
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntUnaryOperator;
+
 
 @Slf4j
 @PluginDescriptor(
@@ -48,25 +52,45 @@ public class AdvancedMetronomePlugin extends Plugin {
     @Inject
     private SoundManager soundManager;
 
+    @Inject
+    private TelemetryRecorder telemetryRecorder;
+
+    @Inject
+    private AudioDispatcher audioDispatcher;
+
+    // Where the local tick clock's predictions are published for anything else that wants them
+    @Inject
+    private TickClock tickClock;
+
+    // Hand sounds to the audio thread, one for each thread that plays ticks
+    private AudioDispatcher.Producer gameTickAudio;   // The client thread, when tick smoothing is off
+    private AudioDispatcher.Producer localTickAudio;  // The local tick thread, when it's on
+
 
     @Inject
     private EventBus eventBus;
 
-    private LocalTickManager localTickManager;
+    // Volatile as the local tick thread reads it too
+    private volatile LocalTickManager localTickManager;
 
 
-    //Holds the tick count//
-    public int tickCount = 0;
+    //Holds the tick count, beat number and whether the reset key is held
+    @Inject
+    private MetronomeState state;
 
-    //Holds the Beat Number of which beat to play/
-    public int beatNumber = 1;
+    // How many ticks each beat has in the current pattern, read when the tick advances
+    private final IntUnaryOperator ticksPerBeat = beat -> soundManager.getTickCount(beat);
+
+    //Set when the next local tick's sound was already handed to the audio engine ahead of time.
+    //Volatile as the local tick thread sets it and the client thread clears it on a hop
+    private volatile boolean audioScheduledAhead = false;
 
 
     protected void startUp()
     {
         log.info("Metronome started");
 
-        tickCount = config.startTick();
+        state.setTickCount(config.startTick());
 
         // Attach the tick overlay
         overlayManager.add(overlay);
@@ -74,14 +98,22 @@ public class AdvancedMetronomePlugin extends Plugin {
         // Register the key input listener
         keyManager.registerKeyListener(inputManager);
 
+        // Every sound is played from the audio thread so the client and tick threads never wait on the device
+        audioDispatcher.start();
+        gameTickAudio = audioDispatcher.newProducer();
+        localTickAudio = audioDispatcher.newProducer();
+
         // Create the LocalTickManager and pass in your tick callback
-        localTickManager = new LocalTickManager(this::onLocalTick);
+        localTickManager = new LocalTickManager(this::onLocalTick, this::onUpcomingLocalTick, telemetryRecorder, tickClock);
+        telemetryRecorder.setEnabled(config.recordTelemetry());
 
         // Register it so it gets onGameTick events
         eventBus.register(localTickManager);
 
-
-
+        // Compile the configured sounds, decoding them in the background, and open the selected audio engine
+        soundManager.updateSampleDirectory();
+        soundManager.updatePattern();
+        soundManager.updateAudioEngine();
     }
 
     @Override
@@ -98,6 +130,51 @@ public class AdvancedMetronomePlugin extends Plugin {
             eventBus.unregister(localTickManager);
             localTickManager = null;
         }
+
+        audioDispatcher.stop();
+        soundManager.shutDown();
+        telemetryRecorder.setEnabled(false);
+    }
+
+    /**
+     * The shared tick clock, for other plugins. TickClock lives in this plugin's own injector so it can't be injected
+     * elsewhere; find this plugin through PluginManager.getPlugins() and call this instead.
+     * It's the same instance for the plugin's whole life, and its prediction is TickPrediction.NONE while stopped.
+     */
+    public TickClock getTickClock()
+    {
+        return tickClock;
+    }
+
+    @Subscribe
+    public void onConfigChanged(ConfigChanged event)
+    {
+        if (!event.getGroup().equals("advancedMetronome"))
+        {
+            return;
+        }
+
+        if (event.getKey().equals("fontSize") || event.getKey().equals("fontColor"))
+        {
+            overlay.invalidateAtlas();
+        }
+        else if (event.getKey().equals("audioEngine"))
+        {
+            soundManager.updateAudioEngine();
+        }
+        else if (event.getKey().equals("recordTelemetry"))
+        {
+            telemetryRecorder.setEnabled(config.recordTelemetry());
+        }
+        else if (event.getKey().equals("sampleDirectory"))
+        {
+            soundManager.updateSampleDirectory();
+        }
+        else if (event.getKey().endsWith("Sound") || event.getKey().equals("customPattern")
+                || event.getKey().equals("tickCount") || event.getKey().equals("enabledBeats"))
+        {
+            soundManager.updatePattern();
+        }
     }
 
     @Subscribe
@@ -112,6 +189,7 @@ public class AdvancedMetronomePlugin extends Plugin {
             {
                 localTickManager.reset();
             }
+            audioScheduledAhead = false;
         }
     }
 
@@ -123,7 +201,7 @@ public class AdvancedMetronomePlugin extends Plugin {
     public void onGameTick(GameTick tick)
     {
         if(!config.enableTickSmoothing()){
-            onTick();
+            onTick(true, gameTickAudio);
         }
 
     }
@@ -131,31 +209,79 @@ public class AdvancedMetronomePlugin extends Plugin {
     private void onLocalTick()
     {
         if(config.enableTickSmoothing()){
-            onTick();
+            onTick(!audioScheduledAhead, localTickAudio);
+        }
+        audioScheduledAhead = false;
+
+        // The latency may have changed since the last tick, this applies from the next one
+        LocalTickManager manager = localTickManager;
+        if (manager != null)
+        {
+            long lead = getAudioLead();
+            // Engines that schedule ahead are handed the sound early enough to cover the latency as well, and can start
+            // it after the tick for a negative lead. The Clip engines play when it's announced, which can't be later
+            // than the tick itself, so a negative lead plays on the tick
+            manager.setAnnounceLead(soundManager.canScheduleAhead() ? LocalTickManager.LOOKAHEAD + Math.max(0, lead)
+                    : Math.max(0, lead));
         }
     }
 
-    private void onTick(){
-        //if the reset key is being held, don't do anything on the game tick
-        if(inputManager.resetKeyIsHeld)
+    /**
+     * How far ahead of a tick its sound needs to start to be heard on it: the measured output latency plus the
+     * user's offset, in nanoseconds. Negative if the offset asks for sounds after the tick, only the mixer can do that
+     */
+    private long getAudioLead()
+    {
+        return soundManager.getOutputLatencyNanos() + TimeUnit.MILLISECONDS.toNanos(config.audioOffset());
+    }
+
+    /**
+     * Fires before each local tick with the exact time it's due, early enough to make up for the audio latency.
+     * If the audio engine can schedule ahead the upcoming tick's sound is queued for that time less the latency,
+     * otherwise this is already that much early and it's played now, either way it's heard on the tick rather than
+     * whenever the tick thread happens to wake up plus however long the audio takes.
+     */
+    private void onUpcomingLocalTick(long tickNanoTime)
+    {
+        if (!config.enableTickSmoothing() || !config.enableAudioMetronome())
         {
             return;
         }
 
-        // Get the max tick count from the user config
-        int maxTicks = config.tickCount();
+        //if the reset key is being held, the tick won't advance so there's nothing to play
+        long snapshot = state.get();
+        if (MetronomeState.isResetHeld(snapshot))
+        {
+            return;
+        }
+
+        int beatNumber = MetronomeState.beat(snapshot);
+        int nextTick = (MetronomeState.tick(snapshot) % soundManager.getTickCount(beatNumber)) + 1;
+        long startTime = soundManager.canScheduleAhead() ? tickNanoTime - getAudioLead() : AudioClipManager.PLAY_NOW;
+        soundManager.playSound(localTickAudio, beatNumber, nextTick, startTime);
+        audioScheduledAhead = true;
+    }
+
+    /**
+     * @param audio The producer for the thread this is called on
+     */
+    private void onTick(boolean playAudio, AudioDispatcher.Producer audio){
+        // Increment the tick counter and wrap back to 1 after the current beat's last tick
+        long snapshot = state.advanceTick(ticksPerBeat);
 
-        // Increment the tick counter and wrap back to 1 if over max
-        tickCount = (tickCount % maxTicks) + 1;
+        //if the reset key is being held, don't do anything on the game tick
+        if(MetronomeState.isResetHeld(snapshot))
+        {
+            return;
+        }
 
         // If Audio Metronome is enabled play the audio for the current tick
-        if(config.enableAudioMetronome()){
-            soundManager.playSound(beatNumber, tickCount);
+        if(playAudio && config.enableAudioMetronome()){
+            soundManager.playSound(audio, MetronomeState.beat(snapshot), MetronomeState.tick(snapshot),
+                    AudioClipManager.PLAY_NOW);
         }
     }
 
-
-
     /**
      * Required by RuneLite to provide config interface.
      */
@@ -164,8 +290,4 @@ public class AdvancedMetronomePlugin extends Plugin {
     {
         return configManager.getConfig(AdvancedMetronomeConfig.class);
     }
-
-
-
-
 }
@@ -3,64 +3,571 @@ package com.alexh1800.AdvancedMetronome;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import javax.sound.sampled.*;
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
+@Singleton
 public class AudioClipManager
 {
 
+    private static final int LOADER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private static final long DERIVED_CACHE_BYTES = 8 * 1024 * 1024; // Derived PCM kept before the least recently used is freed
+    private static final int SILENCE_THRESHOLD = 33;      // Samples this quiet before a sound starts are trimmed, -60 dBFS
+    private static final double ONSET_THRESHOLD = 0.1;    // The transient is the first sample this close to the peak, -20 dB
+
     @Inject
-    public AudioClipManager()
+    public AudioClipManager(TelemetryRecorder telemetry)
+    {
+        this.telemetry = telemetry;
+
+        // Only create a handle for each sound, decoding happens in the background when it's first needed
+        for (TickSoundOption sound : TickSoundOption.values())
+        {
+            if (sound != TickSoundOption.OFF)
+            {
+                SoundHandle handle = new SoundHandle(sound.ordinal(), normalize(sound.name()),
+                        "/com/alexh1800/AdvancedMetronome/" + sound.getFileName());
+                handles.put(handle.name, handle);
+                optionHandles[sound.ordinal()] = handle;
+            }
+        }
+    }
+
+    private final TelemetryRecorder telemetry;
+
+    // Stores sound handles by name, the loader threads fill in their data. User samples come and go while playing
+    private final Map<String, SoundHandle> handles = new ConcurrentHashMap<>();
+
+    // Handles for the user's samples by file, and the ids given to new ones, numbered on from the bundled sounds
+    private final Map<Path, SoundHandle> userHandles = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUserId = new AtomicInteger(TickSoundOption.values().length);
+
+    // Watches the user's sample directory, null when there isn't one
+    private SampleDirectoryWatcher sampleWatcher;
+
+    // Told when user samples are added or removed, so patterns naming them can be compiled again
+    private volatile Runnable onSoundsChanged = () -> { };
+    private volatile boolean soundsChanged = false; // A sample was added or removed since onSoundsChanged last ran
+
+    // The same handles indexed by TickSoundOption ordinal, OFF has none
+    private final SoundHandle[] optionHandles = new SoundHandle[TickSoundOption.values().length];
+
+    // Handles for layered, scaled and panned sounds by their name, in least to most recently used order
+    private final Map<String, SoundHandle> derivedHandles = new LinkedHashMap<>(16, 0.75f, true);
+    private long derivedBytes = 0; // PCM held by the derived sounds that are cached, guarded by derivedHandles
+
+    // Handles the compiled pattern plays, derived ones among them are never freed, guarded by derivedHandles
+    private Set<SoundHandle> patternHandles = Collections.emptySet();
+
+    // Decodes sounds off the client thread, threads exit when there's nothing left to load
+    private final ThreadPoolExecutor loader = createLoader();
+
+    // Holds every decoded sound's PCM off-heap
+    private final SampleStore sampleStore = new SampleStore();
+
+    // Heap copy of a sound for Clip.open, which copies it again internally so one array is reused for every play
+    private final Object clipScratchLock = new Object();
+    private byte[] clipScratch = new byte[0]; // guarded by clipScratchLock
+
+    // A short blip played in place of a sound that hasn't finished loading yet, so a tick is never silent
+    private final SoundData notReadySound = createNotReadySound();
+
+    // Persistent output line used when the mixer engine is selected
+    private final MixerEngine mixer = new MixerEngine();
+
+    // Prewarmed Clips used when the clip pool engine is selected
+    private final ClipPool clipPool = new ClipPool();
+
+    // Which engine play() hands sounds to
+    private volatile AudioEngineOption engine = AudioEngineOption.CLIP_PER_TICK;
+
+    // Runs everything that opens, closes or changes the engines' lines, the caller's thread until AudioDispatcher
+    // takes these over so the thread that plays the sounds is the only one that touches Java Sound
+    private volatile Executor audioThread = Runnable::run;
+
+    // Passed to play() to start a sound straight away
+    public static final long PLAY_NOW = Long.MIN_VALUE;
+
+    // Latency measurements outside this are a stalled line or a missed event rather than the device
+    private static final long MAX_OUTPUT_LATENCY = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final int LATENCY_SMOOTHING = 8; // How slowly the latency estimates follow new measurements
+
+    // How long a Clip opened per tick took from start() to its STOP beyond the sound's own length, smoothed
+    private volatile long clipLatency = 0;
+
+
+    /**
+     * Sets where the engines' lines are opened and closed from now on
+     */
+    void setAudioThread(Executor audioThread)
+    {
+        this.audioThread = audioThread;
+    }
+
+    /**
+     * Switches the playback engine on the audio thread, starting or stopping the mixer's output line and the clip
+     * pool as needed. Falls back to Clips if the mixer can't open an output line.
+     */
+    public void setEngine(AudioEngineOption engine)
+    {
+        audioThread.execute(() -> switchEngine(engine));
+    }
+
+    private synchronized void switchEngine(AudioEngineOption engine)
+    {
+        if (engine == AudioEngineOption.MIXER && !mixer.start())
+        {
+            log.warn("Mixer unavailable, falling back to {}", AudioEngineOption.CLIP_PER_TICK);
+            engine = AudioEngineOption.CLIP_PER_TICK;
+        }
+
+        if (engine != AudioEngineOption.MIXER)
+        {
+            mixer.stop();
+        }
+
+        if (engine == AudioEngineOption.CLIP_POOL)
+        {
+            clipPool.open(loadedSounds());
+        }
+        else
+        {
+            clipPool.close();
+        }
+
+        this.engine = engine;
+    }
+
+    /**
+     * Releases the mixer's output line and any pooled Clips. Clips opened per tick close themselves.
+     */
+    public synchronized void shutDown()
+    {
+        setSampleDirectory("", () -> { });
+        mixer.stop();
+        clipPool.close();
+        engine = AudioEngineOption.CLIP_PER_TICK;
+    }
+
+
+    private static ThreadPoolExecutor createLoader()
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS,
+                5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "Advanced Metronome Loader " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Builds a 10ms decaying 2kHz blip directly in the output format.
+     */
+    private SoundData createNotReadySound()
+    {
+        AudioFormat format = MixerEngine.OUTPUT_FORMAT;
+        int frames = (int) (format.getFrameRate() / 100);
+        byte[] bytes = new byte[frames * format.getFrameSize()];
+
+        for (int i = 0; i < frames; i++)
+        {
+            double envelope = 1 - (double) i / frames;
+            short sample = (short) (Math.sin(2 * Math.PI * 2000 * i / format.getFrameRate()) * envelope * 8000);
+            for (int channel = 0; channel < format.getChannels(); channel++)
+            {
+                int pos = i * format.getFrameSize() + channel * 2;
+                bytes[pos] = (byte) sample;
+                bytes[pos + 1] = (byte) (sample >> 8);
+            }
+        }
+        return new SoundData(format, sampleStore.store(bytes));
+    }
+
+    /**
+     * Gets the handle for a sound option, or null for OFF.
+     * Handles never change, so they can be kept in compiled patterns.
+     */
+    public SoundHandle getHandle(TickSoundOption option)
+    {
+        return optionHandles[option.ordinal()];
+    }
+
+    /**
+     * Gets the handle for a bundled or user sound by name, case- and underscore-insensitive, or null if there's none
+     */
+    public SoundHandle getHandle(String name)
+    {
+        return handles.get(normalize(name));
+    }
+
+    /**
+     * Gets the handle for a tick's sounds: null if there are none, the sound's own handle if there's only one at
+     * its own volume in the centre, otherwise a handle for them premixed at the gain and pan. Premixes are shared by
+     * every tick with the same layers in any order at the same gain and pan, and the least recently used are freed
+     * once they hold more than DERIVED_CACHE_BYTES, so nothing is scaled or panned when a tick plays.
+     * @param found The sounds layered on the tick
+     * @param gainDb Gain in decibels, 0 for the sounds as they are
+     * @param pan -100 fully left to 100 fully right
+     */
+    public SoundHandle getHandle(SoundHandle[] found, float gainDb, int pan)
+    {
+        int count = found.length;
+        if (count == 0)
+        {
+            return null;
+        }
+        if (count == 1 && gainDb == 0 && pan == 0)
+        {
+            return found[0];
+        }
+
+        // Same layers in a different order mix to the same sound
+        SoundHandle[] layers = found.clone();
+        Arrays.sort(layers, (a, b) -> Integer.compare(a.id, b.id));
+        StringBuilder name = new StringBuilder(layers[0].name);
+        for (int i = 1; i < count; i++)
+        {
+            name.append('+').append(layers[i].name);
+        }
+        if (gainDb != 0)
+        {
+            name.append('@').append(gainDb).append("db");
+        }
+        if (pan != 0)
+        {
+            name.append('@').append(pan < 0 ? 'l' : 'r').append(Math.abs(pan));
+        }
+
+        float gain = (float) Math.pow(10, gainDb / 20);
+        synchronized (derivedHandles)
+        {
+            return derivedHandles.computeIfAbsent(name.toString(),
+                    key -> new SoundHandle(key, layers, gain, pan / 100f));
+        }
+    }
+
+    /**
+     * Sets the handles the compiled pattern plays. Derived sounds among them stay cached and counted in the sample
+     * bank even past DERIVED_CACHE_BYTES, since their PCM is live for as long as the pattern is, and the ones the
+     * previous pattern played are freed if the cache is over.
+     */
+    public void setPatternHandles(Set<SoundHandle> handles)
+    {
+        synchronized (derivedHandles)
+        {
+            patternHandles = handles;
+            trimDerived(null);
+        }
+    }
+
+    /**
+     * Frees the least recently used derived sounds the pattern doesn't play until the rest fit in
+     * DERIVED_CACHE_BYTES. Ticks still using one keep playing it, just without pooled Clips.
+     */
+    private void trimDerived(SoundHandle keep)
+    {
+        synchronized (derivedHandles)
+        {
+            Iterator<SoundHandle> eldest = derivedHandles.values().iterator();
+            while (derivedBytes > DERIVED_CACHE_BYTES && eldest.hasNext())
+            {
+                SoundHandle handle = eldest.next();
+                if (handle == keep || patternHandles.contains(handle))
+                {
+                    continue;
+                }
+
+                eldest.remove();
+                releaseDerived(handle);
+            }
+        }
+    }
+
+    /**
+     * Stops counting a derived sound that's just been taken out of the cache
+     */
+    private void releaseDerived(SoundHandle handle)
+    {
+        synchronized (derivedHandles)
+        {
+            SoundData data = handle.data;
+            if (data != null)
+            {
+                audioThread.execute(() -> clipPool.remove(data));
+                sampleStore.release(data.pcm);
+                derivedBytes -= data.length;
+            }
+        }
+    }
+
+    /**
+     * Starts watching a directory of .wav files, each usable in patterns by its file name without the extension.
+     * Files are decoded on the loader threads as they're added or changed and swapped in once decoded, so ticks
+     * keep playing the previous version until then. Stops watching the previous directory and drops its sounds.
+     * @param directory The directory, or blank for none
+     * @param onSoundsChanged Run after samples are added or removed, once for all the files that change together
+     */
+    public synchronized void setSampleDirectory(String directory, Runnable onSoundsChanged)
+    {
+        if (sampleWatcher != null)
+        {
+            sampleWatcher.stop();
+            sampleWatcher = null;
+        }
+        for (Path file : userHandles.keySet())
+        {
+            removeSample(file);
+        }
+        notifySoundsChanged();
+
+        this.onSoundsChanged = onSoundsChanged;
+        if (directory.trim().isEmpty())
+        {
+            return;
+        }
+
+        SampleDirectoryWatcher watcher = new SampleDirectoryWatcher(new File(directory.trim()).toPath(),
+                this::loadSample, this::removeSample, this::notifySoundsChanged);
+        if (watcher.start())
+        {
+            sampleWatcher = watcher;
+        }
+    }
+
+    /**
+     * Decodes a new or changed user sample on the loader threads
+     */
+    private void loadSample(Path file)
     {
-        loadAllAudioFiles();
+        SoundHandle handle = userHandles.get(file);
+        if (handle != null)
+        {
+            loader.execute(() -> reload(handle));
+            return;
+        }
+
+        // Characters that separate ticks, layers and modifiers in a pattern can't be in a name
+        String fileName = file.getFileName().toString();
+        String name = normalize(fileName.substring(0, fileName.length() - SampleDirectoryWatcher.EXTENSION.length()))
+                .replaceAll("[\\s,|+@]+", "-");
+        SoundHandle added = new SoundHandle(nextUserId.getAndIncrement(), name, file.toFile());
+        if (handles.putIfAbsent(name, added) != null)
+        {
+            log.warn("Sample {} has the same name as another sound, skipping it", file);
+            return;
+        }
+        userHandles.put(file, added);
+        added.loadRequested.set(true);
+        loader.execute(() -> reload(added));
+        soundsChanged = true;
     }
 
     /**
-     * Inner class to hold raw sound data and format.
-     * We'll use this to quickly spin up new Clips on demand without reloading the file each time.
+     * Runs onSoundsChanged if samples were added or removed since it last ran
      */
-    private static class SoundData
+    private void notifySoundsChanged()
     {
-        final AudioFormat format;  // Describes the audio (sample rate, channels, encoding)
-        final byte[] bytes;        // Raw PCM audio data
+        if (soundsChanged)
+        {
+            soundsChanged = false;
+            onSoundsChanged.run();
+        }
+    }
 
-        SoundData(AudioFormat format, byte[] bytes)
+    /**
+     * Takes a deleted user sample out of the bank, along with every cached premix it's layered in, so a sample added
+     * again under the same name is mixed afresh. Compiled patterns keep playing them until they're compiled again.
+     */
+    private void removeSample(Path file)
+    {
+        SoundHandle handle = userHandles.remove(file);
+        if (handle == null)
         {
-            this.format = format;
-            this.bytes = bytes;
+            return;
         }
+
+        handles.remove(handle.name, handle);
+        synchronized (handle)
+        {
+            SoundData data = handle.data;
+            if (data != null)
+            {
+                audioThread.execute(() -> clipPool.remove(data));
+                sampleStore.release(data.pcm);
+            }
+        }
+
+        synchronized (derivedHandles)
+        {
+            Iterator<SoundHandle> derived = derivedHandles.values().iterator();
+            while (derived.hasNext())
+            {
+                SoundHandle premix = derived.next();
+                if (Arrays.asList(premix.layers).contains(handle))
+                {
+                    derived.remove();
+                    releaseDerived(premix);
+                }
+            }
+        }
+        soundsChanged = true;
     }
 
-    // Stores sound clips by name
-    private final Map<String, SoundData> sounds = new HashMap<>();
+    /**
+     * Decodes a sound again and swaps the new data in, then remixes every cached sound it's layered in.
+     * If it fails the previous data keeps playing.
+     */
+    private void reload(SoundHandle handle)
+    {
+        SoundData previous;
+        synchronized (handle)
+        {
+            previous = handle.data;
+            decode(handle);
+            if (handle.data == previous)
+            {
+                return;
+            }
+            if (previous != null)
+            {
+                audioThread.execute(() -> clipPool.remove(previous));
+                sampleStore.release(previous.pcm);
+            }
+        }
+
+        List<SoundHandle> affected = new ArrayList<>();
+        synchronized (derivedHandles)
+        {
+            for (SoundHandle derived : derivedHandles.values())
+            {
+                if (derived.data != null && Arrays.asList(derived.layers).contains(handle))
+                {
+                    affected.add(derived);
+                }
+            }
+        }
+        for (SoundHandle derived : affected)
+        {
+            loader.execute(() -> {
+                synchronized (derived)
+                {
+                    loadDerived(derived);
+                }
+            });
+        }
+    }
 
+    /**
+     * Queues the sound to be decoded on the loader threads, in parallel with any others.
+     * Sounds that are already loaded or queued are skipped.
+     */
+    public void preload(SoundHandle handle)
+    {
+        if (handle.loadRequested.compareAndSet(false, true))
+        {
+            loader.execute(() -> load(handle));
+        }
+    }
 
+    /**
+     * Loads every sound listed in the TickSoundOption enum on the calling thread, blocking until all are decoded.
+     */
     public void loadAllAudioFiles(){
         // Load all the audio files listed in the TickSoundOption enum into memory
-        for (TickSoundOption sound : TickSoundOption.values())
+        for (SoundHandle handle : handles.values())
         {
-            load(sound.name(), "/com/alexh1800/AdvancedMetronome/" + sound.getFileName());
+            if (handle.loadRequested.compareAndSet(false, true))
+            {
+                load(handle);
+            }
         }
+
+        log.info("Loaded {} sounds as {}, {} KB off-heap", loadedSounds().size(), MixerEngine.OUTPUT_FORMAT,
+                getSampleBankBytes() / 1024);
+    }
+
+    private List<SoundData> loadedSounds()
+    {
+        List<SoundHandle> loadedHandles = new ArrayList<>(handles.values());
+        synchronized (derivedHandles)
+        {
+            loadedHandles.addAll(derivedHandles.values());
+        }
+
+        List<SoundData> loaded = new ArrayList<>();
+        for (SoundHandle handle : loadedHandles)
+        {
+            SoundData data = handle.data;
+            if (data != null)
+            {
+                loaded.add(data);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Total size of the decoded PCM currently held off-heap, including the not ready blip.
+     */
+    public long getSampleBankBytes()
+    {
+        return sampleStore.getAllocatedBytes();
     }
 
     /**
      * Loads a sound file from resources into memory for future playback.
-     * @param name A human-friendly key name (e.g., "tick-snare")
-     * @param resourcePath The full resource path to the .wav file (e.g. "/com/alexh1800/AdvancedMetronome/tick-snare.wav")
+     * @param handle The sound to load, holding its name (e.g., "tick-snare") and the full resource path to the .wav
+     *               file (e.g. "/com/alexh1800/AdvancedMetronome/tick-snare.wav")
      */
-    private void load(String name, String resourcePath)
+    private void load(SoundHandle handle)
+    {
+        // A derived sound's layers can be loading on another thread at the same time, whoever is first decodes it
+        synchronized (handle)
+        {
+            if (handle.data != null)
+            {
+                return;
+            }
+
+            if (handle.layers != null)
+            {
+                loadDerived(handle);
+            }
+            else
+            {
+                decode(handle);
+            }
+        }
+    }
+
+    private void decode(SoundHandle handle)
     {
-        // Normalize the name for consistent internal access
-        name = name.toLowerCase().replace('_', '-');
+        String name = handle.name;
+        String resourcePath = handle.file != null ? handle.file.getPath() : handle.resourcePath;
+        long loadStart = System.nanoTime();
 
         try
         {
-            // Attempt to load the .wav file from the resources directory
-            URL url = getClass().getResource(resourcePath);
+            // Attempt to load the .wav file from the user's directory or the resources directory
+            URL url = handle.file != null ? handle.file.toURI().toURL() : getClass().getResource(resourcePath);
             if (url == null)
             {
                 log.warn("Could not find sound: {}", resourcePath);
@@ -71,71 +578,375 @@ public class AudioClipManager
             AudioInputStream originalIn = AudioSystem.getAudioInputStream(url);
             AudioFormat format = originalIn.getFormat();
 
-            // Ensure the format is compatible with Java's Clip (PCM_SIGNED is required)
-            if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED)
+            // Convert every sound to the one output format once here, so nothing has to be
+            // resampled or converted when it's played and every engine can use the bytes as they are
+            AudioFormat target = MixerEngine.OUTPUT_FORMAT;
+            if (!format.matches(target))
             {
-                format = new AudioFormat(
-                        AudioFormat.Encoding.PCM_SIGNED, // Force PCM
-                        format.getSampleRate(),          // Keep sample rate (e.g. 44100)
-                        16,                              // Force 16-bit audio
-                        format.getChannels(),            // Mono or stereo
-                        format.getChannels() * 2,        // Frame size in bytes
-                        format.getSampleRate(),          // Frame rate = sample rate
-                        false                            // Little-endian
-                );
+                // Java Sound can't always decode and resample/remix in a single step, so go through 16 bit PCM first
+                if (!AudioSystem.isConversionSupported(target, format))
+                {
+                    AudioFormat pcm = new AudioFormat(
+                            AudioFormat.Encoding.PCM_SIGNED, // Force PCM
+                            format.getSampleRate(),          // Keep sample rate (e.g. 44100)
+                            16,                              // Force 16-bit audio
+                            format.getChannels(),            // Mono or stereo
+                            format.getChannels() * 2,        // Frame size in bytes
+                            format.getSampleRate(),          // Frame rate = sample rate
+                            false                            // Little-endian
+                    );
+                    originalIn = AudioSystem.getAudioInputStream(pcm, originalIn);
+                }
 
-                // Convert the stream to the new format
-                originalIn = AudioSystem.getAudioInputStream(format, originalIn);
+                // Convert the stream to the output format
+                originalIn = AudioSystem.getAudioInputStream(target, originalIn);
             }
 
             // Load the entire audio stream into memory
             byte[] data = originalIn.readAllBytes();
 
-            // Store it in our map for fast reuse
-            sounds.put(name, new SoundData(format, data));
+            // Silence before the sound starts would only delay it, and by a different amount for every sound
+            int silence = silentFrames(data) * target.getFrameSize();
+            if (silence > 0 && silence < data.length)
+            {
+                data = Arrays.copyOfRange(data, silence, data.length);
+            }
+
+            // Move it off-heap and store it on the handle for fast reuse
+            SoundData sound = new SoundData(target, sampleStore.store(data), onsetFrames(data));
+            handle.data = sound;
+
+            // The pool may have been opened before this sound finished loading
+            audioThread.execute(() -> clipPool.add(sound));
 
-            log.info("Loaded sound: {}", name);
-            log.info("from resource path: {}", resourcePath);
+            long loadEnd = System.nanoTime();
+            telemetry.record(TelemetryRecorder.SOUND_LOADED, handle.id, loadEnd, data.length, loadEnd - loadStart);
+            log.debug("Loaded sound: {} from resource path: {}, trimmed {} bytes of silence, onset {} frames in", name,
+                    resourcePath, silence, sound.onsetFrames);
         }
-        catch (UnsupportedAudioFileException | IOException e)
+        catch (UnsupportedAudioFileException | IOException | IllegalArgumentException e)
         {
             log.error("Unsupported or unreadable sound file: {}", resourcePath, e);
         }
     }
 
     /**
-     * Plays the sound by creating a new Clip instance.
+     * Loads each layer of a derived sound and mixes them into one sound at its gain and pan, so the tick still only
+     * plays one voice. Samples are added and clipped at full scale, the layers all start together and it's as long
+     * as the longest. Pan turns the far channel down and leaves the near one as it is.
+     */
+    private void loadDerived(SoundHandle handle)
+    {
+        long loadStart = System.nanoTime();
+
+        int length = 0;
+        for (SoundHandle layer : handle.layers)
+        {
+            layer.loadRequested.set(true);
+            load(layer);
+            if (layer.data == null)
+            {
+                log.warn("Unable to mix {}, {} didn't load", handle.name, layer.name);
+                return;
+            }
+            length = Math.max(length, layer.data.length);
+        }
+
+        int[] mix = new int[length / 2];
+        for (SoundHandle layer : handle.layers)
+        {
+            SoundData data = layer.data;
+            for (int i = 0; i < data.length / 2; i++)
+            {
+                mix[i] += data.pcm.getShort(i * 2);
+            }
+        }
+
+        // Samples alternate left and right
+        float left = handle.gain * Math.min(1, 1 - handle.pan);
+        float right = handle.gain * Math.min(1, 1 + handle.pan);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < mix.length; i++)
+        {
+            int sample = Math.round(mix[i] * (i % 2 == 0 ? left : right));
+            sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+            bytes[i * 2] = (byte) sample;
+            bytes[i * 2 + 1] = (byte) (sample >> 8);
+        }
+
+        SoundData sound = new SoundData(MixerEngine.OUTPUT_FORMAT, sampleStore.store(bytes), onsetFrames(bytes));
+
+        // It may have dropped out of the cache while it was mixing, then there's nothing to release it later.
+        // Swapped in under the cache's lock so whatever drops it from the cache releases exactly what was counted
+        synchronized (derivedHandles)
+        {
+            SoundData previous = handle.data;
+            handle.data = sound;
+            if (derivedHandles.get(handle.name) == handle)
+            {
+                derivedBytes += sound.length;
+                audioThread.execute(() -> clipPool.add(sound));
+                if (previous != null)
+                {
+                    // Remixed because a layer changed
+                    audioThread.execute(() -> clipPool.remove(previous));
+                    sampleStore.release(previous.pcm);
+                    derivedBytes -= previous.length;
+                }
+                trimDerived(handle);
+            }
+            else
+            {
+                sampleStore.release(sound.pcm);
+            }
+        }
+
+        long loadEnd = System.nanoTime();
+        telemetry.record(TelemetryRecorder.SOUND_LOADED, handle.id, loadEnd, bytes.length, loadEnd - loadStart);
+        log.debug("Mixed derived sound: {}", handle.name);
+    }
+
+    /**
+     * Renders cycles of a pattern into a sink on the calling thread, as fast as it can be mixed, for hearing or
+     * comparing exactly what the mixer produces without a sound card. Every beat's ticks are played in turn, one
+     * every tick period with each sound starting on its exact frame, so a pattern always renders to the same output.
+     * Sounds that haven't been decoded yet are decoded first.
+     * @return false if the sink couldn't be opened
+     */
+    boolean render(BeatPattern pattern, int cycles, long tickPeriodNanos, AudioSink sink)
+    {
+        MixerEngine renderer = new MixerEngine(sink);
+        if (!renderer.open())
+        {
+            return false;
+        }
+
+        double framesPerNano = MixerEngine.OUTPUT_FORMAT.getFrameRate() / 1_000_000_000d;
+        long ticks = 0;
+        for (int cycle = 0; cycle < cycles; cycle++)
+        {
+            for (int beat = 1; beat <= pattern.getBeatCount(); beat++)
+            {
+                for (int tick = 1; tick <= pattern.getTickCount(beat); tick++)
+                {
+                    long frame = Math.round(ticks * tickPeriodNanos * framesPerNano);
+                    ticks++;
+
+                    SoundHandle handle = pattern.get(beat, tick);
+                    if (handle == null)
+                    {
+                        continue;
+                    }
+                    handle.loadRequested.set(true);
+                    load(handle);
+                    SoundData data = handle.data;
+                    if (data == null)
+                    {
+                        continue;
+                    }
+
+                    // Mix up to where the sound starts so the mixer never has more than one tick's sound waiting,
+                    // it starts early by its onset like scheduled sounds do
+                    long start = frame - data.onsetFrames;
+                    renderer.render(Math.max(0, start - renderer.getMixedFrames()));
+                    renderer.trigger(data, start);
+                }
+            }
+        }
+
+        renderer.render(Math.round(ticks * tickPeriodNanos * framesPerNano) - renderer.getMixedFrames());
+        renderer.close();
+        return true;
+    }
+
+    /**
+     * How long after a sound starts its transient is heard, in nanoseconds, 0 if it hasn't been decoded.
+     * Silence before it is trimmed at load, so this is only the attack leading up to the transient. The mixer
+     * starts scheduled sounds this much early, the Clip engines play it as latency.
+     */
+    public long getOnsetLatencyNanos(SoundHandle handle)
+    {
+        SoundData data = handle.data;
+        return data == null ? 0 : (long) (data.onsetFrames * 1_000_000_000d / data.format.getFrameRate());
+    }
+
+    /**
+     * Counts the frames at the start of 16 bit stereo PCM where every sample is below SILENCE_THRESHOLD
+     */
+    private static int silentFrames(byte[] pcm)
+    {
+        int frames = pcm.length / 4;
+        for (int frame = 0; frame < frames; frame++)
+        {
+            if (Math.abs(sample(pcm, frame * 2)) >= SILENCE_THRESHOLD
+                    || Math.abs(sample(pcm, frame * 2 + 1)) >= SILENCE_THRESHOLD)
+            {
+                return frame;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Finds the first frame of 16 bit stereo PCM with a sample within ONSET_THRESHOLD of the peak
+     */
+    private static int onsetFrames(byte[] pcm)
+    {
+        int samples = pcm.length / 2;
+        int peak = 0;
+        for (int i = 0; i < samples; i++)
+        {
+            peak = Math.max(peak, Math.abs(sample(pcm, i)));
+        }
+
+        int threshold = (int) Math.ceil(peak * ONSET_THRESHOLD);
+        for (int i = 0; i < samples; i++)
+        {
+            if (Math.abs(sample(pcm, i)) >= threshold)
+            {
+                return i / 2;
+            }
+        }
+        return 0;
+    }
+
+    private static int sample(byte[] pcm, int index)
+    {
+        return (short) ((pcm[index * 2] & 0xFF) | (pcm[index * 2 + 1] << 8));
+    }
+
+    /**
+     * Checks if the selected engine can start a sound on an exact future time passed to play()
+     */
+    public boolean canScheduleAhead()
+    {
+        return engine == AudioEngineOption.MIXER;
+    }
+
+    /**
+     * Gets how long the selected engine takes from play() to the sound reaching the speaker, in nanoseconds.
+     * The mixer reads it from how far the line's playback position is behind what's been written, the Clip engines
+     * from how much longer than the sound a Clip takes from start() to its STOP. It's 0 until measured.
+     */
+    public long getOutputLatencyNanos()
+    {
+        switch (engine)
+        {
+            case MIXER:
+                return mixer.getOutputLatencyNanos();
+            case CLIP_POOL:
+                return clipPool.getOutputLatencyNanos();
+            default:
+                return clipLatency;
+        }
+    }
+
+    /**
+     * Folds a new latency measurement into a running estimate, ignoring ones that can't be real
+     */
+    static long smoothLatency(long estimate, long measured)
+    {
+        if (measured < 0 || measured > MAX_OUTPUT_LATENCY)
+        {
+            return estimate;
+        }
+        return estimate == 0 ? measured : estimate + (measured - estimate) / LATENCY_SMOOTHING;
+    }
+
+    /**
+     * Plays the sound using the selected engine.
      * This allows the same sound to be played multiple times in quick succession or simultaneously.
      * @param name The key used in `load()`, case- and underscore-insensitive
      */
     public void play(String name)
     {
-        // Normalize the name the same way we did in load()
-        String normalizedName = name.toLowerCase().replace('_', '-');
+        play(name, PLAY_NOW);
+    }
+
+    /**
+     * Plays the sound at the given System.nanoTime if the engine can schedule ahead, otherwise right away.
+     * @param name The key used in `load()`, case- and underscore-insensitive
+     * @param nanoTime When the sound should start, or PLAY_NOW
+     */
+    public void play(String name, long nanoTime)
+    {
+        // Normalize the name the same way the handles were named
+        SoundHandle handle = handles.get(normalize(name));
+        if (handle == null)
+        {
+            // Could optionally log, but this is silent to avoid spam on missing config
+            return;
+        }
+
+        play(handle, nanoTime);
+    }
 
+    /**
+     * Plays a sound from its handle, which skips the name lookup and doesn't allocate on the mixer or pool engines.
+     * @param nanoTime When the sound should start, or PLAY_NOW
+     */
+    public void play(SoundHandle handle, long nanoTime)
+    {
         // Retrieve the sound data
-        SoundData data = sounds.get(normalizedName);
+        SoundData data = handle.data;
         if (data == null)
         {
-            // Could optionally log, but this is silent to avoid spam on missing config
+            // Not decoded yet, start loading it and play the blip this time instead of waiting
+            preload(handle);
+            data = notReadySound;
+        }
+
+        // The mixer only needs the sound queued, the line is already open
+        if (engine == AudioEngineOption.MIXER)
+        {
+            // Scheduled sounds start early by their onset so the transient itself lands on the time
+            mixer.trigger(data, nanoTime == PLAY_NOW ? MixerEngine.START_NOW : mixer.frameAt(nanoTime) - data.onsetFrames);
+            return;
+        }
+
+        // Pooled Clips are already open and only need rewinding
+        if (engine == AudioEngineOption.CLIP_POOL && clipPool.play(data))
+        {
             return;
         }
 
+        playClip(handle.name, data);
+    }
+
+    /**
+     * Plays the sound by creating a new Clip instance.
+     */
+    private void playClip(String normalizedName, SoundData data)
+    {
         try
         {
             // Create a new Clip instance each time
             Clip audioClip = AudioSystem.getClip();
 
-            // Open the clip using the preloaded audio data and format
-            audioClip.open(data.format, data.bytes, 0, data.bytes.length);
+            // Open the clip using the preloaded audio data and format, Clip wants it on the heap
+            synchronized (clipScratchLock)
+            {
+                if (clipScratch.length < data.length)
+                {
+                    clipScratch = new byte[data.length];
+                }
+                data.copyTo(clipScratch);
+                audioClip.open(data.format, clipScratch, 0, data.length);
+            }
 
             // Start playing the sound
+            long started = System.nanoTime();
             audioClip.start();
 
             // Automatically free the resources once the sound finishes
             audioClip.addLineListener(event -> {
                 if (event.getType() == LineEvent.Type.STOP)
                 {
+                    // Stopping any later than the sound's length is the time it spent getting to the device
+                    long elapsed = System.nanoTime() - started;
+                    long length = audioClip.getMicrosecondLength() * 1000;
+                    clipLatency = smoothLatency(clipLatency, elapsed - length);
+
                     audioClip.close(); // Close to try to avoid resource leaks
                 }
             });
@@ -145,4 +956,9 @@ public class AudioClipManager
             log.error("Unable to play sound: {}", normalizedName, e);
         }
     }
-}
\ No newline at end of file
+
+    private static String normalize(String name)
+    {
+        return name.toLowerCase().replace('_', '-');
+    }
+}
@@ -0,0 +1,274 @@
+package com.alexh1800.AdvancedMetronome;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AudioDispatcher plays every tick's sound from its own thread, so a stall opening a Clip or writing to the device
+ * never holds up the client thread or the tick thread. While it runs that thread is the only one that touches Java
+ * Sound: engine switches and Clips for newly decoded sounds are queued to it from the other threads too.
+ * Each thread that produces ticks gets a Producer, a fixed size single-producer single-consumer ring of trigger
+ * records, and handing a sound over is a few array writes and an ordered store with no locks or allocation.
+ * If the audio thread falls behind, a full ring drops the new trigger and the audio thread drops triggers that went
+ * stale waiting, so a device stall never turns into a burst of late ticks afterwards. Drops are recorded to telemetry
+ * and their total is logged when the dispatcher stops.
+ */
+@Slf4j
+@Singleton
+public class AudioDispatcher
+{
+    private static final int CAPACITY = 16; // Triggers a producer can have waiting, a power of two
+    private static final long STALE_AFTER = TimeUnit.MILLISECONDS.toNanos(50); // Later than this isn't on the tick any more
+
+    /**
+     * A ring of triggers from one thread to the audio thread. Only one thread may offer to a Producer at a time.
+     */
+    public final class Producer
+    {
+        // Preallocated trigger records, a slot is only read by the audio thread once head has passed it
+        private final SoundHandle[] sounds = new SoundHandle[CAPACITY];
+        private final long[] startTimes = new long[CAPACITY];  // When to start the sound, or PLAY_NOW
+        private final long[] queuedTimes = new long[CAPACITY]; // When the trigger was offered
+
+        private final AtomicLong head = new AtomicLong(); // Next slot the producer writes, only it moves this
+        private final AtomicLong tail = new AtomicLong(); // Next slot the audio thread reads, only it moves this
+
+        private Producer()
+        {
+        }
+
+        /**
+         * Hands a sound to the audio thread to play as AudioClipManager.play would.
+         * @param startTime When the sound should start, or AudioClipManager.PLAY_NOW
+         * @return false if the ring was full and the trigger was dropped
+         */
+        public boolean offer(SoundHandle sound, long startTime)
+        {
+            long sequence = head.get();
+            if (sequence - tail.get() >= CAPACITY)
+            {
+                recordDrop(sound, 0);
+                return false;
+            }
+
+            int slot = (int) (sequence & (CAPACITY - 1));
+            sounds[slot] = sound;
+            startTimes[slot] = startTime;
+            queuedTimes[slot] = System.nanoTime();
+
+            // Publishing after the writes makes them visible to the audio thread when it sees the new head
+            head.lazySet(sequence + 1);
+            LockSupport.unpark(audioThread);
+            return true;
+        }
+
+        /**
+         * Plays or drops every trigger waiting in the ring, on the audio thread
+         * @return false if there were none
+         */
+        private boolean drain()
+        {
+            long sequence = tail.get();
+            long available = head.get();
+            if (sequence == available)
+            {
+                return false;
+            }
+
+            for (; sequence < available; sequence++)
+            {
+                int slot = (int) (sequence & (CAPACITY - 1));
+                SoundHandle sound = sounds[slot];
+                long startTime = startTimes[slot];
+                long due = startTime == AudioClipManager.PLAY_NOW ? queuedTimes[slot] : startTime;
+                sounds[slot] = null;
+
+                // Frees the slot for the producer before the possibly slow play below
+                tail.lazySet(sequence + 1);
+
+                long late = System.nanoTime() - due;
+                if (late > STALE_AFTER)
+                {
+                    recordDrop(sound, late);
+                }
+                else
+                {
+                    try
+                    {
+                        audioClipManager.play(sound, startTime);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // Keep the audio thread alive for the next tick
+                        log.error("Unable to play sound: {}", sound.name, e);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private final AudioClipManager audioClipManager;
+    private final TelemetryRecorder telemetry;
+
+    private final List<Producer> producers = new CopyOnWriteArrayList<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread audioThread;
+
+    // Java Sound work from other threads, run ahead of the triggers so a switched engine plays the next tick
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    @Inject
+    public AudioDispatcher(AudioClipManager audioClipManager, TelemetryRecorder telemetry)
+    {
+        this.audioClipManager = audioClipManager;
+        this.telemetry = telemetry;
+        audioClipManager.setAudioThread(this::execute);
+    }
+
+    /**
+     * Runs the task on the audio thread, or straight away on the calling thread if the audio thread isn't running
+     */
+    void execute(Runnable task)
+    {
+        tasks.add(task);
+        Thread thread = audioThread;
+        if (thread != null)
+        {
+            LockSupport.unpark(thread);
+        }
+        else
+        {
+            runTasks();
+        }
+    }
+
+    /**
+     * Runs every queued task
+     * @return false if there were none
+     */
+    private boolean runTasks()
+    {
+        boolean ran = false;
+        Runnable task;
+        while ((task = tasks.poll()) != null)
+        {
+            ran = true;
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Audio task failed", e);
+            }
+        }
+        return ran;
+    }
+
+    /**
+     * Creates a ring for one producing thread. Rings are dropped when the dispatcher is stopped.
+     */
+    public Producer newProducer()
+    {
+        Producer producer = new Producer();
+        producers.add(producer);
+        return producer;
+    }
+
+    /**
+     * Starts the audio thread
+     */
+    public synchronized void start()
+    {
+        if (audioThread != null)
+        {
+            return;
+        }
+
+        Thread thread = new Thread(this::run, "Advanced Metronome Audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        audioThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the audio thread, anything still waiting in the rings isn't played. Queued tasks are run on the calling
+     * thread, as are any queued after this.
+     */
+    public synchronized void stop()
+    {
+        Thread thread = audioThread;
+        if (thread == null)
+        {
+            return;
+        }
+
+        audioThread = null;
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join(1000);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        producers.clear();
+        runTasks();
+
+        long total = dropped.get();
+        if (total > 0)
+        {
+            log.warn("Dropped {} tick sounds the audio thread couldn't play on time", total);
+        }
+    }
+
+    /**
+     * How many triggers were dropped because a ring was full or they went stale before the audio thread got to them
+     */
+    public long getDroppedTriggers()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Counts a dropped trigger and records it to telemetry, from either side of a ring
+     * @param late How late the trigger was when it was dropped, 0 if its ring was full
+     */
+    private void recordDrop(SoundHandle sound, long late)
+    {
+        long total = dropped.incrementAndGet();
+        telemetry.record(TelemetryRecorder.TRIGGER_DROPPED, (int) total, System.nanoTime(), late, sound.id);
+    }
+
+    private void run()
+    {
+        Thread self = Thread.currentThread();
+        while (audioThread == self)
+        {
+            boolean busy = runTasks();
+            for (Producer producer : producers)
+            {
+                busy |= producer.drain();
+            }
+
+            // Producers and execute() unpark this after every offer or task, so one that lands between the drain and
+            // here isn't missed
+            if (!busy)
+            {
+                LockSupport.park(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.alexh1800.AdvancedMetronome;
+
+/*
+ * Selects how AudioClipManager turns a tick into sound
+ */
+public enum AudioEngineOption
+{
+    // Opens a fresh Clip for every tick and closes it when it stops
+    CLIP_PER_TICK,
+    // Opens a few Clips per sound at startup and rewinds a free one on every tick
+    CLIP_POOL,
+    // Keeps one output line open and mixes every tick sound into it on a dedicated thread
+    MIXER;
+
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase().replace('_', ' ');
+    }
+}
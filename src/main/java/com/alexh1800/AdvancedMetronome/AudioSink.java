@@ -0,0 +1,29 @@
+package com.alexh1800.AdvancedMetronome;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Where MixerEngine sends what it mixes. LineSink plays it on the sound card in real time, WavCaptureSink
+ * writes it to a file as fast as it's mixed.
+ */
+public interface AudioSink
+{
+    /**
+     * @param bufferBytes How much mixed audio a real-time sink should hold ahead of the speaker
+     * @throws LineUnavailableException if the output can't be opened
+     */
+    void open(AudioFormat format, int bufferBytes) throws LineUnavailableException;
+
+    /**
+     * Writes mixed frames, a real-time sink blocks until it has room for them
+     */
+    void write(byte[] buffer, int offset, int length);
+
+    /**
+     * How many frames have actually been played, or written for sinks that aren't real-time
+     */
+    long getFramePosition();
+
+    void close();
+}
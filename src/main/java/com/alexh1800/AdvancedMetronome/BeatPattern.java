@@ -0,0 +1,213 @@
+package com.alexh1800.AdvancedMetronome;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A beat pattern compiled down to the sound handle for every (beat, tick) slot.
+ * It's rebuilt whenever the sound config changes, so playing a tick is an array index instead of
+ * a switch, a config lookup and a sound name lookup.
+ * Beats can have any number of ticks and there can be any number of beats. They're described by a Slot per tick,
+ * the names of the sounds layered on it with their gain and pan, which are read from a single
+ * string like "kick-thump+tick-hihat@+3db, tick-hihat@l50, off | clap-high, tick-hihat@-6db@r30" with one beat
+ * per line or '|', layers joined by '+' and the gain in decibels and pan in percent after '@'.
+ * Layered, scaled and panned ticks compile to a single premixed sound, so they still play one voice.
+ */
+@Slf4j
+class BeatPattern
+{
+    private static final Pattern BEAT_SEPARATOR = Pattern.compile("[|\\n]");
+    private static final Pattern TICK_SEPARATOR = Pattern.compile(",");
+    private static final Pattern LAYER_SEPARATOR = Pattern.compile("\\s*\\+\\s*");
+    private static final Pattern MODIFIER_SEPARATOR = Pattern.compile("\\s*@\\s*");
+    private static final Pattern GAIN = Pattern.compile("([+-]?\\d+(?:\\.\\d+)?)db");
+    private static final Pattern PAN = Pattern.compile("([lr])(\\d+)|c");
+
+    private static final float MIN_GAIN_DB = -60;
+    private static final float MAX_GAIN_DB = 12;
+    private static final int MAX_PAN = 100;
+
+    /**
+     * What plays on one tick before it's compiled
+     */
+    static final class Slot
+    {
+        final String[] soundNames; // Bundled or user sounds layered on the tick
+        final float gainDb;        // 0 plays the sounds at their own volume
+        final int pan;             // -100 fully left to 100 fully right
+
+        Slot(String[] soundNames, float gainDb, int pan)
+        {
+            this.soundNames = soundNames;
+            this.gainDb = gainDb;
+            this.pan = pan;
+        }
+    }
+
+    // Handles for each beat, one per tick, null for ticks that are OFF
+    private final SoundHandle[][] beats;
+
+    BeatPattern(SoundHandle[][] beats)
+    {
+        this.beats = beats;
+    }
+
+    /**
+     * Looks up the handle for every tick's slot, the slots themselves aren't needed once compiled.
+     * Sound names ignore case and accept '_' or '-', unknown names are treated as OFF.
+     * @param slots The slot for each tick of each beat
+     */
+    static BeatPattern compile(Slot[][] slots, AudioClipManager audioClipManager)
+    {
+        SoundHandle[][] beats = new SoundHandle[slots.length][];
+
+        for (int beat = 0; beat < slots.length; beat++)
+        {
+            beats[beat] = new SoundHandle[slots[beat].length];
+            for (int tick = 0; tick < slots[beat].length; tick++)
+            {
+                Slot slot = slots[beat][tick];
+                SoundHandle[] layers = findSounds(slot.soundNames, audioClipManager);
+                beats[beat][tick] = audioClipManager.getHandle(layers, slot.gainDb, slot.pan);
+            }
+        }
+        return new BeatPattern(beats);
+    }
+
+    int getBeatCount()
+    {
+        return beats.length;
+    }
+
+    /**
+     * Gets how many ticks the given beat loops through, unknown beats fall back to beat 1.
+     */
+    int getTickCount(int beatNumber)
+    {
+        return beats[beatIndex(beatNumber)].length;
+    }
+
+    /**
+     * Gets the sound for the given beat and tick, both starting at 1.
+     * Unknown beats fall back to beat 1 and unknown ticks are silent.
+     */
+    SoundHandle get(int beatNumber, int tickCount)
+    {
+        SoundHandle[] ticks = beats[beatIndex(beatNumber)];
+        if (tickCount < 1 || tickCount > ticks.length)
+        {
+            return null;
+        }
+        return ticks[tickCount - 1];
+    }
+
+    private int beatIndex(int beatNumber)
+    {
+        return beatNumber < 1 || beatNumber > beats.length ? 0 : beatNumber - 1;
+    }
+
+    private static SoundHandle[] findSounds(String[] names, AudioClipManager audioClipManager)
+    {
+        List<SoundHandle> found = new ArrayList<>(names.length);
+        for (String name : names)
+        {
+            SoundHandle handle = audioClipManager.getHandle(name);
+            if (handle != null)
+            {
+                found.add(handle);
+            }
+            else if (!name.isEmpty() && !name.equalsIgnoreCase(TickSoundOption.OFF.name()))
+            {
+                log.warn("Unknown sound in pattern: {}", name);
+            }
+        }
+        return found.toArray(new SoundHandle[0]);
+    }
+
+    /**
+     * Parses a pattern string into the slot for each tick of each beat.
+     * Unknown gains and pans are ignored and blank beats are skipped.
+     * @return The slots, with no beats if the string had none
+     */
+    static Slot[][] parse(String text)
+    {
+        List<Slot[]> beats = new ArrayList<>();
+
+        for (String beat : BEAT_SEPARATOR.split(text))
+        {
+            String trimmed = beat.trim();
+            if (trimmed.isEmpty())
+            {
+                continue;
+            }
+
+            // Spaces are only around names and separators, and empty ticks from doubled or trailing commas are skipped
+            List<Slot> slots = new ArrayList<>();
+            for (String tick : TICK_SEPARATOR.split(trimmed))
+            {
+                String name = tick.trim();
+                if (!name.isEmpty())
+                {
+                    slots.add(parseSlot(name));
+                }
+            }
+            if (!slots.isEmpty())
+            {
+                beats.add(slots.toArray(new Slot[0]));
+            }
+        }
+
+        return beats.toArray(new Slot[0][]);
+    }
+
+    /**
+     * Parses a pan percentage, clamped to MAX_PAN even when it's too long for an int
+     */
+    private static int parsePan(String digits)
+    {
+        try
+        {
+            return Math.min(MAX_PAN, Integer.parseInt(digits));
+        }
+        catch (NumberFormatException e)
+        {
+            return MAX_PAN;
+        }
+    }
+
+    /**
+     * Parses one tick, e.g. "kick-thump+tick-hihat@-6db@l50"
+     */
+    private static Slot parseSlot(String tick)
+    {
+        String[] parts = MODIFIER_SEPARATOR.split(tick);
+        String[] soundNames = parts.length > 0 ? LAYER_SEPARATOR.split(parts[0]) : new String[0];
+
+        float gainDb = 0;
+        int pan = 0;
+        for (int i = 1; i < parts.length; i++)
+        {
+            String modifier = parts[i].toLowerCase();
+            Matcher gain = GAIN.matcher(modifier);
+            Matcher position = PAN.matcher(modifier);
+            if (gain.matches())
+            {
+                gainDb = Math.max(MIN_GAIN_DB, Math.min(MAX_GAIN_DB, Float.parseFloat(gain.group(1))));
+            }
+            else if (position.matches())
+            {
+                int amount = position.group(1) == null ? 0 : parsePan(position.group(2));
+                pan = "l".equals(position.group(1)) ? -amount : amount;
+            }
+            else
+            {
+                log.warn("Unknown gain or pan in pattern: {}", parts[i]);
+            }
+        }
+        return new Slot(soundNames, gainDb, pan);
+    }
+}
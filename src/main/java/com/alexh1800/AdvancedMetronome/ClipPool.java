@@ -0,0 +1,214 @@
+package com.alexh1800.AdvancedMetronome;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.sampled.*;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ClipPool opens a fixed number of Clips per sound up front and rewinds them on every play instead of opening a new
+ * Clip per tick. Each sound is capped at VOICES_PER_SOUND playing at once, when they're all busy the voice that
+ * started first is stolen, so long samples overlapping every tick can't grow the number of open lines.
+ */
+@Slf4j
+public class ClipPool
+{
+    // Voice cap per sound, no bundled sample is longer than two ticks so two voices cover the overlap
+    private static final int VOICES_PER_SOUND = 2;
+
+    /**
+     * The opened Clips for a single sound and when each was last started
+     */
+    private static class Voices
+    {
+        final Clip[] clips;
+        final long[] startTimes;
+
+        Voices(Clip[] clips)
+        {
+            this.clips = clips;
+            this.startTimes = new long[clips.length];
+        }
+    }
+
+    // Opened Clips by sound, replaced as a whole whenever it changes so play() never sees a half-built pool
+    private volatile Map<SoundData, Voices> pools = new IdentityHashMap<>();
+
+    // Whether sounds loaded later should be added to the pool
+    private boolean open = false;
+
+    // How long a Clip takes from start() to its STOP beyond the sound's own length, smoothed, in nanoseconds
+    private volatile long outputLatency = 0;
+
+    /**
+     * Opens VOICES_PER_SOUND Clips for each sound. Sounds that can't get a line are left out and
+     * play() reports them as unpooled.
+     */
+    public synchronized void open(Collection<SoundData> sounds)
+    {
+        if (open)
+        {
+            return;
+        }
+        open = true;
+
+        for (SoundData data : sounds)
+        {
+            add(data);
+        }
+        log.info("Opened pooled clips for {} sounds", pools.size());
+    }
+
+    /**
+     * Opens Clips for a sound that finished loading after the pool was opened.
+     * Does nothing if the pool is closed or already has the sound.
+     */
+    public synchronized void add(SoundData data)
+    {
+        if (!open || pools.containsKey(data))
+        {
+            return;
+        }
+
+        Clip[] clips = new Clip[VOICES_PER_SOUND];
+        byte[] bytes = new byte[data.length];
+        data.copyTo(bytes);
+        try
+        {
+            for (int i = 0; i < clips.length; i++)
+            {
+                clips[i] = AudioSystem.getClip();
+                clips[i].open(data.format, bytes, 0, bytes.length);
+            }
+        }
+        catch (LineUnavailableException | IllegalArgumentException e)
+        {
+            log.warn("Unable to open pooled clips, sound will open a clip per tick instead", e);
+            closeAll(clips);
+            return;
+        }
+
+        Voices voices = new Voices(clips);
+        for (int i = 0; i < clips.length; i++)
+        {
+            addLatencyListener(voices, i);
+        }
+
+        Map<SoundData, Voices> opened = new IdentityHashMap<>(pools);
+        opened.put(data, voices);
+        pools = opened;
+    }
+
+    /**
+     * Measures the latency each time a voice plays to the end, a stolen voice stops early and is ignored
+     */
+    private void addLatencyListener(Voices voices, int voice)
+    {
+        Clip clip = voices.clips[voice];
+        long length = clip.getMicrosecondLength() * 1000;
+        clip.addLineListener(event -> {
+            if (event.getType() == LineEvent.Type.STOP)
+            {
+                long started;
+                synchronized (voices)
+                {
+                    started = voices.startTimes[voice];
+                }
+                if (started != 0)
+                {
+                    outputLatency = AudioClipManager.smoothLatency(outputLatency, System.nanoTime() - started - length);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the Clips for a sound that's no longer going to be played, it opens a clip per tick if it is
+     */
+    public synchronized void remove(SoundData data)
+    {
+        Voices voices = pools.get(data);
+        if (voices == null)
+        {
+            return;
+        }
+
+        Map<SoundData, Voices> remaining = new IdentityHashMap<>(pools);
+        remaining.remove(data);
+        pools = remaining;
+        closeAll(voices.clips);
+    }
+
+    /**
+     * Stops and closes every pooled Clip.
+     */
+    public synchronized void close()
+    {
+        open = false;
+        Map<SoundData, Voices> closing = pools;
+        pools = new IdentityHashMap<>();
+
+        for (Voices voices : closing.values())
+        {
+            closeAll(voices.clips);
+        }
+    }
+
+    /**
+     * Rewinds and starts a free Clip for the sound, stealing the oldest voice if they're all playing.
+     * @return false if the sound has no pooled Clips
+     */
+    public boolean play(SoundData data)
+    {
+        Voices voices = pools.get(data);
+        if (voices == null)
+        {
+            return false;
+        }
+
+        synchronized (voices)
+        {
+            int voice = 0;
+            for (int i = 0; i < voices.clips.length; i++)
+            {
+                if (!voices.clips[i].isRunning())
+                {
+                    voice = i;
+                    break;
+                }
+                if (voices.startTimes[i] < voices.startTimes[voice])
+                {
+                    voice = i;
+                }
+            }
+
+            Clip clip = voices.clips[voice];
+            clip.stop();
+            clip.setFramePosition(0);
+            clip.start();
+            voices.startTimes[voice] = System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * How long a pooled Clip takes from start() to being heard, in nanoseconds, 0 until it's been measured
+     */
+    public long getOutputLatencyNanos()
+    {
+        return outputLatency;
+    }
+
+    private static void closeAll(Clip[] clips)
+    {
+        for (Clip clip : clips)
+        {
+            if (clip != null)
+            {
+                clip.close();
+            }
+        }
+    }
+}
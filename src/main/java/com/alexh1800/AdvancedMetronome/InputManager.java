@@ -3,6 +3,7 @@ package com.alexh1800.AdvancedMetronome;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.awt.event.KeyEvent;
+import java.util.function.IntUnaryOperator;
 
 
 /*
@@ -11,18 +12,21 @@ import java.awt.event.KeyEvent;
 @Singleton
 public class InputManager implements net.runelite.client.input.KeyListener
 {
-    private final AdvancedMetronomePlugin plugin;
+    private final MetronomeState state;
     private final AdvancedMetronomeConfig config;
+    private final SoundManager soundManager;
 
-    //stores if the reset tick key is currently held down
-    public boolean resetKeyIsHeld = false;
+    // How many ticks each beat has in the current pattern
+    private final IntUnaryOperator ticksPerBeat;
 
 
     @Inject
-    public InputManager(AdvancedMetronomePlugin plugin, AdvancedMetronomeConfig config)
+    public InputManager(MetronomeState state, AdvancedMetronomeConfig config, SoundManager soundManager)
     {
-        this.plugin = plugin;
+        this.state = state;
         this.config = config;
+        this.soundManager = soundManager;
+        this.ticksPerBeat = soundManager::getTickCount;
     }
 
 
@@ -33,9 +37,8 @@ public class InputManager implements net.runelite.client.input.KeyListener
         //if the reset key set in the config is pressed
         if (config.resetHotkey().matches(e))
         {
-            //make sure tick count is reset as soon as the key is hit
-            plugin.tickCount = config.startTick();
-            resetKeyIsHeld = true;
+            //make sure tick count is reset as soon as the key is hit, and held there until it's released
+            state.holdReset(config.startTick());
         }
     }
 
@@ -46,7 +49,7 @@ public class InputManager implements net.runelite.client.input.KeyListener
 
         if (config.resetHotkey().matches(e))
         {
-            resetKeyIsHeld = false;
+            state.releaseReset();
         }
 
         //handle hotkey for next beat
@@ -87,27 +90,23 @@ public class InputManager implements net.runelite.client.input.KeyListener
 
 
     /**
-     * Manually adjust the current tick (via key listener). Wraps correctly based on config.
+     * Manually adjust the current tick (via key listener). Wraps correctly based on the current pattern.
      */
     public void adjustTick(int delta)
     {
-        int maxTicks = config.tickCount();
-        plugin.tickCount = ((plugin.tickCount - 1 + delta + maxTicks) % maxTicks) + 1;
+        state.adjustTick(delta, ticksPerBeat);
     }
 
 
     /**
-     * Manually adjust the current beat number (via key listener). Wraps between 1 and the configured max beat count.
+     * Manually adjust the current beat number (via key listener). Wraps between 1 and the pattern's beat count.
      *
      * @param delta The amount to add/subtract (e.g., -1 to go back, +1 to go forward)
      */
     public void adjustBeat(int delta)
     {
-        // Clamp to the user defined beats
-        int maxBeats = config.enabledBeats();
-
-        // Update beatNumber using modulo logic to wrap between 1 and maxBeats
-        plugin.beatNumber = ((plugin.beatNumber - 1 + delta + maxBeats) % maxBeats) + 1;
+        // Wrap between 1 and the beats in the current pattern
+        state.adjustBeat(delta, soundManager.getBeatCount());
     }
 
 }
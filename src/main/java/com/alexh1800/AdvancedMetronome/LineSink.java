@@ -0,0 +1,42 @@
+package com.alexh1800.AdvancedMetronome;
+
+import javax.sound.sampled.*;
+
+/**
+ * Plays the mixer's output on the default output device through a SourceDataLine
+ */
+class LineSink implements AudioSink
+{
+    private SourceDataLine line;
+
+    @Override
+    public void open(AudioFormat format, int bufferBytes) throws LineUnavailableException
+    {
+        line = AudioSystem.getSourceDataLine(format);
+        line.open(format, bufferBytes);
+        line.start();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length)
+    {
+        line.write(buffer, offset, length);
+    }
+
+    @Override
+    public long getFramePosition()
+    {
+        return line.getLongFramePosition();
+    }
+
+    @Override
+    public void close()
+    {
+        if (line != null)
+        {
+            line.stop();
+            line.close();
+            line = null;
+        }
+    }
+}
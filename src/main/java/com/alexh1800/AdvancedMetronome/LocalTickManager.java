@@ -5,145 +5,373 @@ import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.events.GameTick;
 import net.runelite.client.eventbus.Subscribe;
 
-import java.util.concurrent.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
 
 /**
- * LocalTickManager tracks tick timing independently though with the help of RuneLite's game tick events,
- * it works by nudging a few milliseconds towards the game tick, every game tick, imperceptibly drifting towards
- * an almost perfect average to determine exactly when server ticks should happen without jitter caused by lag
- * for when a metronome that sounds good and consistent is more important than perfect game ticks that include server lag
+ * LocalTickManager fires local ticks that follow the server's tick cadence without the jitter lag adds to game ticks,
+ * for when a steady metronome matters more than matching every game tick. Each game tick's arrival goes to a
+ * TickEstimator, which fits the server's period and phase over the last few dozen ticks and ignores lag spikes.
+ * Ticks are fired from a dedicated thread on System.nanoTime, parking until just before each tick and spinning the
+ * rest of the way. The tick loop is a step function of the current time, so tests can drive it from a virtual clock.
+ * Each tick's prediction is published to a TickClock, whose listeners are fired from the same loop.
  */
 @Slf4j
 public class LocalTickManager
 {
     // Base values
-    private static final long BASE_TICK_INTERVAL_MS = 600; // Standard tick duration
-    private static final long MAX_ADJUSTMENT_MS = 10;      // Maximum per-tick interval correction
+    static final long LOOKAHEAD = TimeUnit.MILLISECONDS.toNanos(100);                  // How far ahead of a local tick its time is announced by default
+    private static final int SUMMARY_TICKS = 100;                                      // Game ticks between histogram summaries in the log
+    private static final long SPIN_WINDOW = TimeUnit.MILLISECONDS.toNanos(2);          // Spin instead of parking this close to a tick
+    private static final long RESYNC_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(50);    // Tick intervals further than this from a period count as a resync
 
-    // Tick counters
-    private int gameTickCount = 0;   // Increments each time onGameTick fires
-    private int localTickCount = 0;  // Increments each time local tick fires
+    // Server tick period and phase, fed by the client thread and read by the timing thread
+    private final TickEstimator estimator = new TickEstimator();
 
-    // Time tracking
-    private long lastLocalTickTime = 0;         // Timestamp of the last local tick
-    private long lastGameTickTime = 0;         // Timestamp of the last local tick
-    private long currentTickInterval = BASE_TICK_INTERVAL_MS;
+    // Time tracking, all System.nanoTime
+    private volatile long lastLocalTickTime = 0;         // When the last local tick was due
 
-    // Executor for scheduling ticks
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-    private ScheduledFuture<?> tickLoop = null;
+    // When the last game tick arrived, only touched by the client thread
+    private long lastGameTickTime = 0;
+
+    // How well local ticks track the server, fixed size so recording never allocates
+    private final TickHistogram gameTickIntervals = new TickHistogram(TickEstimator.NOMINAL_PERIOD); // Time between game tick arrivals
+    private final TickHistogram phaseErrors = new TickHistogram(0);  // Game tick arrival minus the nearest local tick
+    private final TickHistogram wakeupErrors = new TickHistogram(0); // How late each local tick fired
+
+    // The thread firing local ticks, null when stopped. A thread that finds it's no longer this one exits.
+    private volatile Thread timingThread = null;
+
+    // Where the prediction is published for everything else, and whose listeners the tick loop fires
+    private final TickClock tickClock;
 
     // User-defined logic to run on each local tick
     private final Runnable onTickCallback;
 
+    // Receives the System.nanoTime of the next local tick announceLead before it fires
+    private final LongConsumer onUpcomingTickCallback;
+
+    // How long before each local tick onUpcomingTickCallback gets it, read when the tick is scheduled
+    private volatile long announceLead = LOOKAHEAD;
+
+    // Every game and local tick is recorded here instead of being logged
+    private final TelemetryRecorder telemetry;
+
+    // Where the time comes from, System.nanoTime unless a test is driving the ticks with step()
+    private final LongSupplier clock;
+    private final boolean ownThread;
+    private volatile boolean running = false;
+
+    // The tick the loop is working towards, only touched by whoever is calling step()
+    private long deadline = 0;         // 0 when the next tick hasn't been scheduled yet
+    private long interval = 0;         // From the previous tick to deadline
+    private long lead = 0;             // announceLead when deadline was scheduled
+    private boolean announced = false; // Whether onUpcomingTickCallback has had deadline yet
+
+    // Times the local ticks had to jump to catch up, after falling behind or the estimator relocking
+    private volatile int resyncCount = 0;
+
     @Inject
-    public LocalTickManager(Runnable onTickCallback)
+    public LocalTickManager(Runnable onTickCallback, LongConsumer onUpcomingTickCallback, TelemetryRecorder telemetry,
+                            TickClock tickClock)
+    {
+        this(onTickCallback, onUpcomingTickCallback, telemetry, tickClock, System::nanoTime, true);
+    }
+
+    /**
+     * @param clock Gives the current time in nanoseconds
+     * @param ownThread Whether start() runs the tick loop on its own thread, if not the caller has to call step()
+     */
+    LocalTickManager(Runnable onTickCallback, LongConsumer onUpcomingTickCallback, TelemetryRecorder telemetry,
+                     TickClock tickClock, LongSupplier clock, boolean ownThread)
     {
         this.onTickCallback = onTickCallback;
+        this.onUpcomingTickCallback = onUpcomingTickCallback;
+        this.telemetry = telemetry;
+        this.tickClock = tickClock;
+        this.clock = clock;
+        this.ownThread = ownThread;
     }
 
     /**
      * Receives the real game tick from RuneLite.
-     * We use this to update our game tick counter and calculate drift.
+     * Each arrival goes into the estimator, which works out the server's cadence the local ticks follow.
      */
     @Subscribe
     public void onGameTick(GameTick event)
     {
-        //if local metronome hasn't counted anything yet, start it up
-        if(localTickCount == 0){
-            localTickCount++;
-            start();
+        long now = clock.getAsLong();
+
+        long sinceLastGameTick = lastGameTickTime == 0 ? 0 : now - lastGameTickTime;
+        if (lastGameTickTime != 0)
+        {
+            gameTickIntervals.record(sinceLastGameTick);
+        }
+        lastGameTickTime = now;
+
+        TickPrediction window = tickClock.getPrediction();
+        if (window != TickPrediction.NONE)
+        {
+            long sinceLocalTick = now - window.getTickNanos();
+            long untilLocalTick = now - window.getNextTickNanos();
+            phaseErrors.record(Math.abs(sinceLocalTick) < Math.abs(untilLocalTick) ? sinceLocalTick : untilLocalTick);
         }
 
-        lastGameTickTime = System.currentTimeMillis();
-        gameTickCount++;
+        boolean used = estimator.addArrival(now);
+        telemetry.record(used ? TelemetryRecorder.GAME_TICK : TelemetryRecorder.GAME_TICK_IGNORED,
+                (int) gameTickIntervals.getCount(), now, sinceLastGameTick, estimator.getLastError());
+
+        // If local metronome isn't running yet, start it up. Only once the estimator has this arrival, or the
+        // timing thread could schedule its first tick with nothing to go on and land it a period late
+        if (!running)
+        {
+            start();
+        }
 
-        //so the tick counts don't count up infinitely
-        if(gameTickCount >= 100){
-            //subtract less than the checked amount as we don't want local tick count to hit 0 and trigger start()
-            gameTickCount = gameTickCount - 90;
-            localTickCount = localTickCount - 90;
+        // Summarise the histograms every SUMMARY_TICKS game ticks, about once a minute
+        if (gameTickIntervals.getCount() % SUMMARY_TICKS == SUMMARY_TICKS - 1)
+        {
+            log.info("Game tick intervals: {}; Phase error: {}; Wakeup error: {}",
+                    gameTickIntervals, phaseErrors, wakeupErrors);
         }
+    }
 
-        // if for some reason ticks get way out of sync make them equal to each other
-        int tickDifference = gameTickCount - localTickCount;
-        if (tickDifference > 1 || tickDifference < 0){
-            localTickCount = gameTickCount;
-            log.info("Correcting out of sync ticks");
+    /*
+     * Starts the local tick loop.
+     * This schedules the first tick after receiving the first GameTick.
+     */
+    public synchronized void start()
+    {
+        // Don't start twice
+        if (running)
+        {
+            return;
         }
 
-        long timeDifference;
+        log.info("Starting local tick loop.");
+        lastLocalTickTime = clock.getAsLong();
+        deadline = 0;
+        running = true;
 
-        //if gametick is ahead of local tick then local tick needs to happen sooner than 600ms else later
-        //note this is a bit crude in that it doesn't account for when they're perfectly in sync, but that's pretty rare
-        if(gameTickCount > localTickCount)
+        if (!ownThread)
         {
-            //if game tick is before local tick
-            //use predicted next local tick to see how far off they are
+            return;
+        }
+
+        Thread thread = new Thread(this::runTickLoop, "Advanced Metronome Tick Timer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        timingThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Fires local ticks until this thread is stopped, sleeping between steps.
+     */
+    private void runTickLoop()
+    {
+        Thread self = Thread.currentThread();
 
-            long nextLocalTickTime = lastLocalTickTime + currentTickInterval;
-            //get the time difference of how far off the local tick is from the game tick (should return a negative)
-            timeDifference = lastGameTickTime - nextLocalTickTime;
+        while (timingThread == self)
+        {
+            long next = step(clock.getAsLong());
 
-            //if the time difference is less than our max adjustment, adjust by that much to make things slightly more accurate
-            if(Math.abs(timeDifference) < MAX_ADJUSTMENT_MS)
+            // The announcement may be when a sound is started to make up for output latency, so it spins too
+            if (!waitUntil(self, next))
             {
-                currentTickInterval = BASE_TICK_INTERVAL_MS - Math.abs(timeDifference);
-            }else{
-                currentTickInterval = BASE_TICK_INTERVAL_MS - MAX_ADJUSTMENT_MS;
+                return;
             }
+        }
+    }
+
+    /**
+     * Does whatever the tick loop has due at the given time and says when it next needs to be called.
+     * Each tick is due at the estimator's next server tick after the previous one was due, rather than after it
+     * actually fired, so a late wakeup doesn't push every tick after it back too. The time the tick is due is announced
+     * announceLead early so audio can be lined up with it in advance, and each TickClock listener is called its own
+     * lead early.
+     * @return The System.nanoTime to call this again at, which may be now
+     */
+    long step(long now)
+    {
+        if (!running)
+        {
+            return now;
+        }
 
+        if (deadline == 0)
+        {
+            // Half a period on so a correction to the phase can't fire the same tick twice or skip one
+            long tickStart = lastLocalTickTime;
+            deadline = estimator.predictAfter(tickStart + estimator.getPeriod() / 2);
+            interval = deadline - tickStart;
+            lead = announceLead;
+            announced = interval <= lead;
+            armListeners();
+            tickClock.publish(new TickPrediction(tickStart, deadline, estimator.getPeriod(), estimator.getConfidence()));
+
+            // Normal corrections are a few milliseconds, anything this far off a period is a jump to a new phase
+            if (Math.abs(interval - estimator.getPeriod()) > RESYNC_THRESHOLD)
+            {
+                resyncCount++;
+            }
+        }
 
-        }else{
-            //if game tick is after local tick
-            //use the actual tick counts to see how far apart they are
+        long next = fireListeners(now);
 
-            timeDifference = lastGameTickTime - lastLocalTickTime;
-            //if the time difference is less than our max adjustment, adjust by that much to make things slightly more accurate
-            if(timeDifference < MAX_ADJUSTMENT_MS)
+        if (!announced)
+        {
+            if (now < deadline - lead)
             {
-                currentTickInterval = BASE_TICK_INTERVAL_MS + timeDifference;
-            }else{
-                currentTickInterval = BASE_TICK_INTERVAL_MS + MAX_ADJUSTMENT_MS;
+                return Math.min(deadline - lead, next);
             }
+            announced = true;
+            onUpcomingTickCallback.accept(deadline);
+        }
 
+        if (now < deadline)
+        {
+            return Math.min(deadline, next);
         }
 
-        log.info("GameTick: {}, LocalTick: {}, Δ: {}, Adjusted Interval: {}, Time Difference: {}",
-                gameTickCount, localTickCount, tickDifference, currentTickInterval, timeDifference);
+        long error = now - deadline;
+        wakeupErrors.record(error);
+        telemetry.record(TelemetryRecorder.LOCAL_TICK, (int) wakeupErrors.getCount(), deadline, interval, error);
+
+        onTickCallback.run();                 // Run the user's metronome logic
+
+        // If we've fallen a whole tick behind (e.g. the computer was asleep) start again from now
+        // rather than firing every missed tick back to back
+        if (error > interval)
+        {
+            lastLocalTickTime = clock.getAsLong();
+            resyncCount++;
+        }
+        else
+        {
+            lastLocalTickTime = deadline;
+        }
+        deadline = 0;
+        return now;
     }
 
-    /*
-     * Starts the local tick loop.
-     * This schedules the first tick after receiving the first GameTick.
+    /**
+     * Arms every TickClock listener for deadline, except those whose lead reaches back before the tick in progress
      */
-    public void start()
+    private void armListeners()
     {
-        // Don't start twice
-        if (tickLoop != null)
+        TickClock.Registration[] listeners = tickClock.getListeners();
+        for (int i = 0; i < listeners.length; i++)
         {
-            return;
+            listeners[i].armedFor = listeners[i].lead < interval ? deadline : 0;
         }
+    }
 
-        log.info("Starting local tick loop.");
-        lastLocalTickTime = System.currentTimeMillis();
-        scheduleNextTick();
+    /**
+     * Calls the TickClock listeners armed for deadline that are due by now.
+     * @return When the next armed listener is due, or Long.MAX_VALUE if there isn't one
+     */
+    private long fireListeners(long now)
+    {
+        long next = Long.MAX_VALUE;
+        TickClock.Registration[] listeners = tickClock.getListeners();
+        for (int i = 0; i < listeners.length; i++)
+        {
+            TickClock.Registration registration = listeners[i];
+            if (registration.armedFor != deadline)
+            {
+                continue;
+            }
+
+            long due = deadline - registration.lead;
+            if (now < due)
+            {
+                next = Math.min(next, due);
+                continue;
+            }
+
+            registration.armedFor = 0;
+            try
+            {
+                registration.listener.onUpcomingTick(deadline);
+            }
+            catch (RuntimeException e)
+            {
+                // Someone else's listener mustn't stop the local ticks
+                log.error("Tick listener failed", e);
+            }
+        }
+        return next;
     }
 
     /**
-     * Schedules the next local tick.
-     * Each tick reschedules itself with a potentially adjusted interval.
+     * Waits for the given System.nanoTime, parking until SPIN_WINDOW before it and spinning the rest.
+     * @return false if the tick loop was stopped while waiting
      */
-    private void scheduleNextTick()
+    private boolean waitUntil(Thread self, long time)
     {
-        tickLoop = executor.schedule(() -> {
-            onTickCallback.run();                 // Run the user's metronome logic
-            lastLocalTickTime = System.currentTimeMillis();
-            localTickCount++;                     // Count this local tick
+        while (timingThread == self)
+        {
+            long remaining = time - clock.getAsLong();
+            if (remaining <= 0)
+            {
+                return true;
+            }
 
-            scheduleNextTick();                   // Schedule the next one
+            if (remaining > SPIN_WINDOW)
+            {
+                LockSupport.parkNanos(this, remaining - SPIN_WINDOW);
+            }
+            else
+            {
+                Thread.onSpinWait();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets how long before each local tick onUpcomingTickCallback is given its time, from the next tick scheduled.
+     * Kept under half a period so the announcement always comes after the previous tick.
+     */
+    public void setAnnounceLead(long nanos)
+    {
+        announceLead = Math.max(0, Math.min(nanos, TickEstimator.NOMINAL_PERIOD / 2 - SPIN_WINDOW));
+    }
+
+    /**
+     * How many times the local ticks have jumped to a new phase instead of following on from the last tick,
+     * either because the estimator relocked or the tick loop fell a whole tick behind. Not cleared by reset().
+     */
+    public int getResyncCount()
+    {
+        return resyncCount;
+    }
 
-        }, currentTickInterval, TimeUnit.MILLISECONDS);
+    /**
+     * Time between game tick arrivals since the last reset
+     */
+    public TickHistogram getGameTickIntervals()
+    {
+        return gameTickIntervals;
+    }
+
+    /**
+     * How far each game tick arrived from the nearest local tick since the last reset, positive if the game tick was later
+     */
+    public TickHistogram getPhaseErrors()
+    {
+        return phaseErrors;
+    }
+
+    /**
+     * How late each local tick fired since the last reset
+     */
+    public TickHistogram getWakeupErrors()
+    {
+        return wakeupErrors;
     }
 
     /**
@@ -154,25 +382,47 @@ public class LocalTickManager
     {
         log.debug("Resetting local tick manager.");
 
-        stopTickLoop();
+        // Wait for a step() in progress to finish, so it can't publish a prediction or schedule a tick after this.
+        // Outside the lock, so a game tick calling start() isn't held up while it waits
+        Thread thread = stopTickLoop();
+        if (thread != null && thread != Thread.currentThread())
+        {
+            try
+            {
+                thread.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
 
         // Reset counters and timing
-        gameTickCount = 0;
-        localTickCount = 0;
+        tickClock.publish(TickPrediction.NONE);
+        estimator.reset();
         lastLocalTickTime = 0;
-        currentTickInterval = BASE_TICK_INTERVAL_MS;
+        deadline = 0;
+        lastGameTickTime = 0;
+        gameTickIntervals.reset();
+        phaseErrors.reset();
+        wakeupErrors.reset();
     }
 
     /**
      * Cleanly stops any active tick loop.
+     * The timing thread notices it's been replaced and exits, it's woken up so that happens straight away.
+     * @return The timing thread that was stopped, or null if there wasn't one
      */
-    private void stopTickLoop()
+    private synchronized Thread stopTickLoop()
     {
-        if (tickLoop != null)
+        running = false;
+        Thread thread = timingThread;
+        if (thread != null)
         {
-            tickLoop.cancel(true);
-            tickLoop = null;
+            timingThread = null;
+            LockSupport.unpark(thread);
         }
+        return thread;
     }
 
     /**
@@ -183,6 +433,5 @@ public class LocalTickManager
     {
         log.info("Shutting down local tick manager.");
         reset();
-        executor.shutdownNow();
     }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.alexh1800.AdvancedMetronome;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The metronome's tick count, beat number and reset key state packed into one atomically updated long.
+ * The tick threads, the key listener and the overlay all share it, every change is a compare-and-set on the whole
+ * word so an increment can't be lost to a key press, and get() returns a snapshot where all three agree.
+ * Snapshots are read with the static tick/beat/isResetHeld helpers.
+ */
+@Singleton
+public class MetronomeState
+{
+    // Layout of the packed word: tick in the low 32 bits, then 16 bits of beat, then flags
+    private static final int BEAT_SHIFT = 32;
+    private static final long BEAT_MASK = 0xFFFFL;
+    private static final int FLAGS_SHIFT = 48;
+    private static final long RESET_HELD = 1L << FLAGS_SHIFT; // The reset key is down, ticks don't advance
+
+    private final AtomicLong state = new AtomicLong(pack(0, 1, false));
+
+    @Inject
+    public MetronomeState()
+    {
+    }
+
+    /**
+     * Gets a consistent snapshot of the tick, beat and flags
+     */
+    public long get()
+    {
+        return state.get();
+    }
+
+    public static int tick(long snapshot)
+    {
+        return (int) snapshot;
+    }
+
+    public static int beat(long snapshot)
+    {
+        return (int) ((snapshot >>> BEAT_SHIFT) & BEAT_MASK);
+    }
+
+    public static boolean isResetHeld(long snapshot)
+    {
+        return (snapshot & RESET_HELD) != 0;
+    }
+
+    public int getTickCount()
+    {
+        return tick(state.get());
+    }
+
+    public int getBeatNumber()
+    {
+        return beat(state.get());
+    }
+
+    public boolean isResetHeld()
+    {
+        return isResetHeld(state.get());
+    }
+
+    public void setTickCount(int tick)
+    {
+        long current;
+        do
+        {
+            current = state.get();
+        }
+        while (!state.compareAndSet(current, pack(tick, beat(current), isResetHeld(current))));
+    }
+
+    /**
+     * Moves the tick back to the start tick and holds it there until releaseReset()
+     */
+    public void holdReset(int startTick)
+    {
+        long current;
+        do
+        {
+            current = state.get();
+        }
+        while (!state.compareAndSet(current, pack(startTick, beat(current), true)));
+    }
+
+    public void releaseReset()
+    {
+        long current;
+        do
+        {
+            current = state.get();
+        }
+        while (!state.compareAndSet(current, current & ~RESET_HELD));
+    }
+
+    /**
+     * Advances to the next tick, wrapping back to 1 after the current beat's last tick.
+     * Does nothing while the reset key is held.
+     * @param ticksPerBeat Gives the number of ticks in a beat
+     * @return The snapshot after advancing, check isResetHeld on it to see if it did
+     */
+    public long advanceTick(IntUnaryOperator ticksPerBeat)
+    {
+        long current;
+        long next;
+        do
+        {
+            current = state.get();
+            if (isResetHeld(current))
+            {
+                return current;
+            }
+            int beat = beat(current);
+            int maxTicks = ticksPerBeat.applyAsInt(beat);
+            next = pack((tick(current) % maxTicks) + 1, beat, false);
+        }
+        while (!state.compareAndSet(current, next));
+        return next;
+    }
+
+    /**
+     * Moves the tick by delta, wrapping within the current beat's ticks
+     */
+    public void adjustTick(int delta, IntUnaryOperator ticksPerBeat)
+    {
+        long current;
+        long next;
+        do
+        {
+            current = state.get();
+            int beat = beat(current);
+            int maxTicks = ticksPerBeat.applyAsInt(beat);
+            int tick = ((tick(current) - 1 + delta % maxTicks + maxTicks) % maxTicks) + 1;
+            next = pack(tick, beat, isResetHeld(current));
+        }
+        while (!state.compareAndSet(current, next));
+    }
+
+    /**
+     * Moves the beat by delta, wrapping between 1 and beatCount
+     */
+    public void adjustBeat(int delta, int beatCount)
+    {
+        long current;
+        long next;
+        do
+        {
+            current = state.get();
+            int beat = ((beat(current) - 1 + delta % beatCount + beatCount) % beatCount) + 1;
+            next = pack(tick(current), beat, isResetHeld(current));
+        }
+        while (!state.compareAndSet(current, next));
+    }
+
+    private static long pack(int tick, int beat, boolean resetHeld)
+    {
+        return (tick & 0xFFFFFFFFL) | ((beat & BEAT_MASK) << BEAT_SHIFT) | (resetHeld ? RESET_HELD : 0);
+    }
+}
@@ -0,0 +1,412 @@
+package com.alexh1800.AdvancedMetronome;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.sampled.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * MixerEngine keeps a single SourceDataLine open for the whole session and mixes every triggered sound into it
+ * from a dedicated thread. Triggering a tick only hands the SoundData over to the mixer thread, so there is no
+ * device open/close on the tick path and nothing to leak if a line never reports STOP.
+ * Sounds can also be triggered ahead of time for a given System.nanoTime, in which case they start on the exact
+ * frame of the output stream that lines up with that time, so thread wakeup jitter never reaches the speaker.
+ * The output goes to an AudioSink, the sound card unless it's given another. A sink that isn't real-time can
+ * instead be rendered into from the calling thread with render(), with sounds triggered on exact frames.
+ */
+@Slf4j
+public class MixerEngine implements Runnable
+{
+    // Set to a sample rate to mix at it whatever the output device is, so offline renders match across machines
+    static final String SAMPLE_RATE_PROPERTY = "advancedMetronome.sampleRate";
+
+    // The one format every sound is converted to at load and mixed in: 16 bit, stereo, signed little-endian
+    static final AudioFormat OUTPUT_FORMAT = chooseOutputFormat();
+
+    private static final int FRAMES_PER_BUFFER = 256; // One mix period, ~5.8ms at 44.1kHz
+    private static final int BUFFER_COUNT = 4;        // How many mix periods the line holds ahead of the speaker
+    private static final int MAX_VOICES = 32;         // Sounds that can be playing or waiting to start at the same time
+
+    private static final double NANOS_PER_FRAME = 1_000_000_000d / OUTPUT_FORMAT.getFrameRate();
+    private static final int CLOCK_SMOOTHING = 16;    // How slowly the sample clock follows the mixer thread's wakeups
+
+    // Passed as the start frame to start a sound at the next mix period
+    static final long START_NOW = 0;
+
+    /**
+     * A sound currently being mixed and how far through it we are
+     */
+    private static class Voice
+    {
+        SoundData sound;   // null when the voice is free
+        int position;      // Byte offset of the next frame to mix
+        long startFrame;   // Output frame the sound starts on
+    }
+
+    private final Voice[] voices = new Voice[MAX_VOICES];
+
+    // Triggers handed over from the tick threads, drained by the mixer thread at the start of every mix period
+    private final SoundData[] pending = new SoundData[MAX_VOICES];
+    private final long[] pendingFrames = new long[MAX_VOICES];
+    private int pendingCount = 0; // guarded by pending
+
+    // Output frame the next mix period starts on, only written by the mixer thread
+    private volatile long mixedFrames = 0;
+
+    // The System.nanoTime that output frame 0 lines up with, maps nanoTime onto the sample clock
+    private volatile long frameZeroNanos = 0;
+
+    // Frames written to the line but not yet played, smoothed, which is how long a mixed frame takes to be heard
+    private volatile double queuedFrames = 0;
+
+    // Mix buffers are allocated once and reused for every period
+    private final int[] mixBuffer = new int[FRAMES_PER_BUFFER * 2];
+    private final byte[] outBuffer = new byte[FRAMES_PER_BUFFER * OUTPUT_FORMAT.getFrameSize()];
+
+    private final AudioSink sink;
+    private Thread mixThread;
+    private volatile boolean running = false;
+
+    public MixerEngine()
+    {
+        this(new LineSink());
+    }
+
+    public MixerEngine(AudioSink sink)
+    {
+        this.sink = sink;
+        for (int i = 0; i < MAX_VOICES; i++)
+        {
+            voices[i] = new Voice();
+        }
+    }
+
+    /**
+     * Opens the output line and starts the mixer thread.
+     * @return false if no output line could be opened, in which case the caller should fall back to Clips
+     */
+    public synchronized boolean start()
+    {
+        if (running)
+        {
+            return true;
+        }
+
+        if (!open())
+        {
+            return false;
+        }
+
+        frameZeroNanos = System.nanoTime();
+        queuedFrames = FRAMES_PER_BUFFER * BUFFER_COUNT;
+        running = true;
+        mixThread = new Thread(this, "Advanced Metronome Mixer");
+        mixThread.setDaemon(true);
+        mixThread.setPriority(Thread.MAX_PRIORITY);
+        mixThread.start();
+
+        log.info("Mixer started with a {} byte line buffer", outBuffer.length * BUFFER_COUNT);
+        return true;
+    }
+
+    /**
+     * Opens the sink with nothing mixed yet
+     */
+    boolean open()
+    {
+        try
+        {
+            sink.open(OUTPUT_FORMAT, outBuffer.length * BUFFER_COUNT);
+        }
+        catch (LineUnavailableException | IllegalArgumentException e)
+        {
+            log.error("Unable to open mixer output line", e);
+            sink.close();
+            return false;
+        }
+        mixedFrames = 0;
+        return true;
+    }
+
+    /**
+     * Closes the sink and drops every sound still playing or waiting to start
+     */
+    void close()
+    {
+        sink.close();
+        for (Voice voice : voices)
+        {
+            voice.sound = null;
+        }
+        synchronized (pending)
+        {
+            pendingCount = 0;
+        }
+    }
+
+    /**
+     * Mixes frames straight into the sink on the calling thread, for a sink opened with open() that isn't played
+     * in real time. Sounds triggered since the last call start on their frame, if it's in what's mixed.
+     * @param frames How many frames to write, they don't have to fill whole mix periods
+     */
+    void render(long frames)
+    {
+        long end = mixedFrames + frames;
+        while (mixedFrames < end)
+        {
+            // Only as much as is written, so a voice carries on from exactly there next call
+            int count = (int) Math.min(FRAMES_PER_BUFFER, end - mixedFrames);
+            startPendingVoices();
+            mix(count);
+            sink.write(outBuffer, 0, count * OUTPUT_FORMAT.getFrameSize());
+            mixedFrames += count;
+        }
+    }
+
+    /**
+     * The output frame the next mix period starts on
+     */
+    long getMixedFrames()
+    {
+        return mixedFrames;
+    }
+
+    /**
+     * Stops the mixer thread and closes the output line.
+     */
+    public synchronized void stop()
+    {
+        if (!running)
+        {
+            return;
+        }
+
+        running = false;
+        try
+        {
+            mixThread.join(1000);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        mixThread = null;
+
+        close();
+        log.info("Mixer stopped");
+    }
+
+    /**
+     * Picks the first sample rate the default output device accepts directly, so Java Sound
+     * doesn't have to convert anything between us and the device, unless SAMPLE_RATE_PROPERTY fixes it.
+     */
+    private static AudioFormat chooseOutputFormat()
+    {
+        Integer fixedRate = Integer.getInteger(SAMPLE_RATE_PROPERTY);
+        if (fixedRate != null)
+        {
+            return new AudioFormat(fixedRate, 16, 2, true, false);
+        }
+
+        float[] sampleRates = {44100f, 48000f};
+        for (float sampleRate : sampleRates)
+        {
+            AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+            try
+            {
+                if (AudioSystem.isLineSupported(new DataLine.Info(SourceDataLine.class, format)))
+                {
+                    return format;
+                }
+            }
+            catch (IllegalArgumentException | SecurityException e)
+            {
+                break; // No usable audio system, the default below is as good as any
+            }
+        }
+        return new AudioFormat(sampleRates[0], 16, 2, true, false);
+    }
+
+    /**
+     * Converts a System.nanoTime into the output frame that will be mixed at that time.
+     */
+    public long frameAt(long nanoTime)
+    {
+        return (long) ((nanoTime - frameZeroNanos) / NANOS_PER_FRAME);
+    }
+
+    /**
+     * Queues a sound to start playing on the given output frame, or at the next mix period if that frame has
+     * already been mixed.
+     * If the queue is full the trigger is dropped, which only happens if the mixer thread has stalled.
+     */
+    public void trigger(SoundData sound, long startFrame)
+    {
+        synchronized (pending)
+        {
+            if (pendingCount < pending.length)
+            {
+                pending[pendingCount] = sound;
+                pendingFrames[pendingCount] = startFrame;
+                pendingCount++;
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        // Fill the line's buffer with silence first so the writes below block from the start,
+        // then line the sample clock up with the time the next period gets mixed
+        Arrays.fill(outBuffer, (byte) 0);
+        for (int i = 0; i < BUFFER_COUNT; i++)
+        {
+            sink.write(outBuffer, 0, outBuffer.length);
+            mixedFrames += FRAMES_PER_BUFFER;
+        }
+        frameZeroNanos = System.nanoTime() - (long) (mixedFrames * NANOS_PER_FRAME);
+
+        while (running)
+        {
+            updateClock();
+            startPendingVoices();
+            mix(FRAMES_PER_BUFFER);
+            // Blocks until the line has room, which is what paces this loop
+            sink.write(outBuffer, 0, outBuffer.length);
+            mixedFrames += FRAMES_PER_BUFFER;
+            updateLatency();
+        }
+    }
+
+    /**
+     * Measures how far the line's playback position is behind what's been written.
+     * Smoothed like the clock so the jitter in when the position updates doesn't move scheduled sounds around.
+     */
+    private void updateLatency()
+    {
+        long queued = mixedFrames - sink.getFramePosition();
+        if (queued >= 0)
+        {
+            queuedFrames += (queued - queuedFrames) / CLOCK_SMOOTHING;
+        }
+    }
+
+    /**
+     * How long a sound takes from being mixed to being played by the device, in nanoseconds.
+     * Sounds scheduled for a time are heard this much after it unless they're scheduled this much earlier.
+     */
+    public long getOutputLatencyNanos()
+    {
+        return running ? (long) (queuedFrames * NANOS_PER_FRAME) : 0;
+    }
+
+    /**
+     * Nudges the nanoTime to frame mapping towards when this period is actually being mixed.
+     * Only a fraction of the error is applied so a single late wakeup doesn't shift scheduled sounds.
+     */
+    private void updateClock()
+    {
+        long predicted = frameZeroNanos + (long) (mixedFrames * NANOS_PER_FRAME);
+        long error = System.nanoTime() - predicted;
+        frameZeroNanos += error / CLOCK_SMOOTHING;
+    }
+
+    /**
+     * Moves queued triggers into free voices, stealing the voice that started first when all are busy.
+     */
+    private void startPendingVoices()
+    {
+        synchronized (pending)
+        {
+            for (int i = 0; i < pendingCount; i++)
+            {
+                Voice voice = freeVoice();
+                voice.sound = pending[i];
+                voice.position = 0;
+                // Sounds due in a period that was already mixed start in this one
+                voice.startFrame = Math.max(pendingFrames[i], mixedFrames);
+                pending[i] = null;
+            }
+            pendingCount = 0;
+        }
+    }
+
+    private Voice freeVoice()
+    {
+        Voice oldest = voices[0];
+        for (Voice voice : voices)
+        {
+            if (voice.sound == null)
+            {
+                return voice;
+            }
+            if (voice.startFrame < oldest.startFrame)
+            {
+                oldest = voice;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Sums every active voice into the mix buffer and writes the clamped result into the output buffer.
+     * @param frames How many frames to mix, up to FRAMES_PER_BUFFER, voices move on by exactly this many
+     */
+    private void mix(int frames)
+    {
+        Arrays.fill(mixBuffer, 0, frames * 2, 0);
+        long periodStart = mixedFrames;
+
+        for (Voice voice : voices)
+        {
+            SoundData sound = voice.sound;
+            if (sound == null)
+            {
+                continue;
+            }
+
+            // Sounds scheduled ahead start part way into the period they land in
+            int frame = 0;
+            if (voice.startFrame > periodStart)
+            {
+                long offset = voice.startFrame - periodStart;
+                if (offset >= frames)
+                {
+                    continue; // Not due yet
+                }
+                frame = (int) offset;
+            }
+
+            // Every sound is already in OUTPUT_FORMAT, so frames are summed as they are
+            // They're read straight from the off-heap store with absolute gets, so nothing is copied
+            ByteBuffer pcm = sound.pcm;
+            int length = sound.length;
+            int pos = voice.position;
+
+            for (; frame < frames && pos + 4 <= length; frame++)
+            {
+                // 16 bit little-endian samples, left then right
+                mixBuffer[frame * 2] += pcm.getShort(pos);
+                mixBuffer[frame * 2 + 1] += pcm.getShort(pos + 2);
+                pos += 4;
+            }
+
+            if (pos + 4 > length)
+            {
+                voice.sound = null; // Finished, free the voice
+            }
+            else
+            {
+                voice.position = pos;
+            }
+        }
+
+        for (int i = 0; i < frames * 2; i++)
+        {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixBuffer[i]));
+            outBuffer[i * 2] = (byte) sample;
+            outBuffer[i * 2 + 1] = (byte) (sample >> 8);
+        }
+    }
+}
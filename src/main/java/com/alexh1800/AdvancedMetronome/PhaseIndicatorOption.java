@@ -0,0 +1,19 @@
+package com.alexh1800.AdvancedMetronome;
+
+/*
+ * How the progress through the current tick is shown above the player
+ */
+public enum PhaseIndicatorOption
+{
+    OFF,
+    // A bar under the tick number that fills up over the tick
+    SWEEP_BAR,
+    // A ring around the tick number that closes in on it over the tick
+    PULSE_RING;
+
+    @Override
+    public String toString()
+    {
+        return name().toLowerCase().replace('_', ' ');
+    }
+}
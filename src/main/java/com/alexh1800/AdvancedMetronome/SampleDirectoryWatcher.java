@@ -0,0 +1,270 @@
+package com.alexh1800.AdvancedMetronome;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a directory of .wav files with a WatchService and reports each file that's added, changed or deleted.
+ * Only the files an event names are looked at, and a file isn't reported until it's stopped changing for
+ * SETTLE_TIME so one still being written is only decoded once it's finished. The directory is only scanned when
+ * watching starts or the WatchService loses track of events, and even then only files whose size or modified time
+ * changed are reported.
+ */
+@Slf4j
+class SampleDirectoryWatcher
+{
+    static final String EXTENSION = ".wav";
+
+    private static final long SETTLE_TIME = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Path directory;
+    private final Consumer<Path> onChanged;
+    private final Consumer<Path> onRemoved;
+    private final Runnable onReported;
+
+    // What each reported file looked like, so a rescan only reports real changes. Only the watch thread uses these
+    private final Map<Path, FileState> known = new HashMap<>();
+    private final Map<Path, Long> settling = new HashMap<>(); // Files with events, by when they'll have settled
+
+    private WatchService watchService;
+    private volatile Thread watchThread;
+
+    /**
+     * The size and modified time of a file when it was last reported
+     */
+    private static final class FileState
+    {
+        final long size;
+        final long modified;
+
+        FileState(BasicFileAttributes attributes)
+        {
+            this.size = attributes.size();
+            this.modified = attributes.lastModifiedTime().toMillis();
+        }
+
+        boolean matches(BasicFileAttributes attributes)
+        {
+            return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * @param onChanged Given each .wav file that's new or changed, on the watch thread
+     * @param onRemoved Given each .wav file that was deleted, on the watch thread
+     * @param onReported Run once after each batch of files that settled together has been reported, on the watch
+     *                   thread, e.g. once for every file already there when watching starts
+     */
+    SampleDirectoryWatcher(Path directory, Consumer<Path> onChanged, Consumer<Path> onRemoved, Runnable onReported)
+    {
+        this.directory = directory.toAbsolutePath();
+        this.onChanged = onChanged;
+        this.onRemoved = onRemoved;
+        this.onReported = onReported;
+    }
+
+    /**
+     * Starts watching, the files already there are reported from the watch thread straight away.
+     * @return false if the directory can't be watched
+     */
+    boolean start()
+    {
+        try
+        {
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to watch sample directory: {}", directory, e);
+            close();
+            return false;
+        }
+
+        Thread thread = new Thread(this::run, "Advanced Metronome Sample Watcher");
+        thread.setDaemon(true);
+        watchThread = thread;
+        thread.start();
+        log.info("Watching sample directory: {}", directory);
+        return true;
+    }
+
+    /**
+     * Stops watching and waits for the watch thread, nothing is reported after this returns
+     */
+    void stop()
+    {
+        Thread thread = watchThread;
+        watchThread = null;
+        close();
+        if (thread != null && thread != Thread.currentThread())
+        {
+            try
+            {
+                thread.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void close()
+    {
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("Unable to close sample directory watch service", e);
+        }
+    }
+
+    private void run()
+    {
+        Thread self = Thread.currentThread();
+        rescan();
+
+        try
+        {
+            while (watchThread == self)
+            {
+                // Wake when the next settling file is due, or wait for events when there are none
+                WatchKey key = settling.isEmpty()
+                        ? watchService.take()
+                        : watchService.poll(nextSettled() - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (watchThread != self)
+                {
+                    return;
+                }
+
+                if (key != null)
+                {
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                        {
+                            rescan();
+                        }
+                        else
+                        {
+                            settle(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset())
+                    {
+                        log.warn("Sample directory is no longer accessible: {}", directory);
+                        return;
+                    }
+                }
+
+                reportSettled();
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            // Stopped
+        }
+    }
+
+    /**
+     * Looks at every .wav file in the directory and every file reported before, for when events were missed
+     */
+    private void rescan()
+    {
+        // Every file is listed and settle() picks out the .wav ones, a glob would be case-sensitive on most systems
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory))
+        {
+            for (Path file : files)
+            {
+                settle(file);
+            }
+        }
+        catch (IOException | DirectoryIteratorException e)
+        {
+            log.warn("Unable to list sample directory: {}", directory, e);
+        }
+
+        for (Path file : known.keySet())
+        {
+            settle(file);
+        }
+    }
+
+    private void settle(Path file)
+    {
+        if (file.getFileName().toString().toLowerCase().endsWith(EXTENSION))
+        {
+            settling.put(file, System.nanoTime() + SETTLE_TIME);
+        }
+    }
+
+    private long nextSettled()
+    {
+        long next = Long.MAX_VALUE;
+        for (long time : settling.values())
+        {
+            next = Math.min(next, time);
+        }
+        return next;
+    }
+
+    /**
+     * Reports every file that's had no events for SETTLE_TIME, if it's actually changed
+     */
+    private void reportSettled()
+    {
+        long now = System.nanoTime();
+        boolean reported = false;
+        Iterator<Map.Entry<Path, Long>> files = settling.entrySet().iterator();
+        while (files.hasNext())
+        {
+            Map.Entry<Path, Long> entry = files.next();
+            if (entry.getValue() - now > 0)
+            {
+                continue;
+            }
+            files.remove();
+
+            Path file = entry.getKey();
+            BasicFileAttributes attributes;
+            try
+            {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            }
+            catch (IOException e)
+            {
+                if (known.remove(file) != null)
+                {
+                    onRemoved.accept(file);
+                    reported = true;
+                }
+                continue;
+            }
+
+            FileState previous = known.get(file);
+            if (attributes.isRegularFile() && (previous == null || !previous.matches(attributes)))
+            {
+                known.put(file, new FileState(attributes));
+                onChanged.accept(file);
+                reported = true;
+            }
+        }
+
+        if (reported)
+        {
+            onReported.run();
+        }
+    }
+}
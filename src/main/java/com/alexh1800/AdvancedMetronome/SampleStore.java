@@ -0,0 +1,40 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps decoded PCM outside the Java heap in direct ByteBuffers.
+ * The sample bank lives as long as the client does, so keeping it off-heap stops it from sitting in the
+ * GC's old generation, and the mixer can read straight from the buffers without copying them.
+ */
+class SampleStore
+{
+    // Total bytes held in direct buffers handed out by this store
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * Copies decoded PCM into a new direct buffer in little-endian order, ready for absolute reads.
+     */
+    ByteBuffer store(byte[] pcm)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pcm.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(pcm).flip();
+        allocatedBytes.addAndGet(pcm.length);
+        return buffer;
+    }
+
+    /**
+     * Stops counting a buffer that's no longer used, its memory is freed once it's garbage collected
+     */
+    void release(ByteBuffer buffer)
+    {
+        allocatedBytes.addAndGet(-buffer.capacity());
+    }
+
+    long getAllocatedBytes()
+    {
+        return allocatedBytes.get();
+    }
+}
@@ -0,0 +1,39 @@
+package com.alexh1800.AdvancedMetronome;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+
+/**
+ * Holds raw sound data and format.
+ * We'll use this to quickly spin up new Clips on demand without reloading the file each time,
+ * and the MixerEngine reads the same buffer directly when mixing voices.
+ */
+class SoundData
+{
+    final AudioFormat format;  // Always MixerEngine.OUTPUT_FORMAT, every sound is converted to it at load
+    final ByteBuffer pcm;      // Raw PCM audio data, off-heap and little-endian, only ever read with absolute gets
+    final int length;          // Size of the PCM data in bytes
+    final int onsetFrames;     // Frames from the start to the transient, where the sound is heard to hit
+
+    SoundData(AudioFormat format, ByteBuffer pcm)
+    {
+        this(format, pcm, 0);
+    }
+
+    SoundData(AudioFormat format, ByteBuffer pcm, int onsetFrames)
+    {
+        this.format = format;
+        this.pcm = pcm;
+        this.length = pcm.limit();
+        this.onsetFrames = onsetFrames;
+    }
+
+    /**
+     * Copies the PCM data into a heap array for APIs like Clip.open that only accept one.
+     * @param dst Must be at least length bytes long
+     */
+    void copyTo(byte[] dst)
+    {
+        pcm.duplicate().get(dst, 0, length);
+    }
+}
@@ -0,0 +1,59 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A stable reference to one sound in the bank.
+ * Compiled patterns hold handles instead of names so playing a tick is just a field read,
+ * and the decoded SoundData is filled in whenever the loader finishes with it.
+ * A user sample's handle stays the same when its file changes, only the data is swapped.
+ * A derived handle has no file of its own, its data is its layers mixed together at a gain and pan.
+ */
+class SoundHandle
+{
+    final int id;               // Sound id, the TickSoundOption ordinal, user samples count on from the last one, -1 for derived
+    final String name;          // Normalized name, e.g. "tick-snare", or the layers' joined by '+' then the gain and pan
+    final String resourcePath;  // The built-in sound's .wav resource, null for user samples and derived sounds
+    final File file;            // The user's .wav file the sound is decoded from, null for others
+    final SoundHandle[] layers; // The sounds mixed together for a derived sound, null otherwise
+    final float gain;           // Linear gain applied to the mix, 1 for decoded sounds
+    final float pan;            // -1 fully left to 1 fully right, 0 for decoded sounds
+    volatile SoundData data;    // null until the sound has been decoded
+
+    // Set once the sound has been queued for loading, so it's only ever decoded once
+    final AtomicBoolean loadRequested = new AtomicBoolean();
+
+    SoundHandle(int id, String name, String resourcePath)
+    {
+        this.id = id;
+        this.name = name;
+        this.resourcePath = resourcePath;
+        this.file = null;
+        this.layers = null;
+        this.gain = 1;
+        this.pan = 0;
+    }
+
+    SoundHandle(int id, String name, File file)
+    {
+        this.id = id;
+        this.name = name;
+        this.resourcePath = null;
+        this.file = file;
+        this.layers = null;
+        this.gain = 1;
+        this.pan = 0;
+    }
+
+    SoundHandle(String name, SoundHandle[] layers, float gain, float pan)
+    {
+        this.id = -1;
+        this.name = name;
+        this.resourcePath = null;
+        this.file = null;
+        this.layers = layers;
+        this.gain = gain;
+        this.pan = pan;
+    }
+}
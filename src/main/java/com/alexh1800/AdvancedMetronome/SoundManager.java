@@ -2,6 +2,8 @@ package com.alexh1800.AdvancedMetronome;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.HashSet;
+import java.util.Set;
 
 
 /*
@@ -14,78 +16,160 @@ public class SoundManager {
     private final AdvancedMetronomeConfig config;
 
     // This manages and plays  audio clips
-    private final AudioClipManager audioClipManager = new AudioClipManager();
+    private final AudioClipManager audioClipManager;
+
+    // The sound config compiled into sound handles, swapped whole when the config changes
+    private volatile BeatPattern pattern = new BeatPattern(new SoundHandle[][] {{null}});
 
 
     @Inject
-    public SoundManager( AdvancedMetronomeConfig config)
+    public SoundManager(AdvancedMetronomeConfig config, AudioClipManager audioClipManager)
     {
         this.config = config;
+        this.audioClipManager = audioClipManager;
     }
 
-
     /**
-     * Determines which tick to play on which beat
+     * Compiles the pattern played on each tick and starts decoding every sound it uses in the background,
+     * call again whenever the pattern config changes.
+     * The custom pattern is used if it's set, otherwise the Beat 1 and Beat 2 sounds cut to the tick count.
+     * Sounds that aren't used are decoded the first time they're played.
      */
-    public void playSound(int beatNumber, int tickCount)
+    public void updatePattern()
     {
-        switch (beatNumber)
+        BeatPattern.Slot[][] slots = BeatPattern.parse(config.customPattern());
+        if (slots.length == 0)
         {
-            case 1: playBeat1(tickCount); break;
-            case 2: playBeat2(tickCount); break;
-            default: playBeat1(tickCount); break;
+            slots = configuredSlots();
         }
+
+        BeatPattern compiled = BeatPattern.compile(slots, audioClipManager);
+        Set<SoundHandle> used = new HashSet<>();
+        for (int beat = 1; beat <= compiled.getBeatCount(); beat++)
+        {
+            for (int tick = 1; tick <= compiled.getTickCount(beat); tick++)
+            {
+                SoundHandle handle = compiled.get(beat, tick);
+                if (handle != null)
+                {
+                    used.add(handle);
+                }
+            }
+        }
+
+        // Before anything's decoded, so loading one premix can't free another the pattern plays
+        audioClipManager.setPatternHandles(used);
+        for (SoundHandle handle : used)
+        {
+            audioClipManager.preload(handle);
+        }
+        pattern = compiled;
     }
 
     /**
-     * Plays the configured sound for the given tick (1–8) using the DEFAULT set
+     * Reads the sounds out of the Beat 1 and Beat 2 sections, only keeping the enabled beats and ticks.
+     * Each tick there has a single sound at its own volume, layering, gain and pan need the custom pattern.
      */
-    private void playBeat1(int tickCount)
+    private BeatPattern.Slot[][] configuredSlots()
     {
-        TickSoundOption option;
-
-        switch (tickCount)
+        TickSoundOption[][] beats = {
+                {config.tick1Sound(), config.tick2Sound(), config.tick3Sound(), config.tick4Sound(),
+                        config.tick5Sound(), config.tick6Sound(), config.tick7Sound(), config.tick8Sound()},
+                {config.beat2Tick1Sound(), config.beat2Tick2Sound(), config.beat2Tick3Sound(), config.beat2Tick4Sound(),
+                        config.beat2Tick5Sound(), config.beat2Tick6Sound(), config.beat2Tick7Sound(), config.beat2Tick8Sound()}
+        };
+
+        int beatCount = Math.max(1, Math.min(config.enabledBeats(), beats.length));
+        int tickCount = Math.max(1, Math.min(config.tickCount(), beats[0].length));
+
+        BeatPattern.Slot[][] slots = new BeatPattern.Slot[beatCount][tickCount];
+        for (int beat = 0; beat < beatCount; beat++)
         {
-            case 1: option = config.tick1Sound(); break;
-            case 2: option = config.tick2Sound(); break;
-            case 3: option = config.tick3Sound(); break;
-            case 4: option = config.tick4Sound(); break;
-            case 5: option = config.tick5Sound(); break;
-            case 6: option = config.tick6Sound(); break;
-            case 7: option = config.tick7Sound(); break;
-            case 8: option = config.tick8Sound(); break;
-            default: option = TickSoundOption.OFF; break;
+            for (int tick = 0; tick < tickCount; tick++)
+            {
+                slots[beat][tick] = new BeatPattern.Slot(new String[] {beats[beat][tick].name()}, 0, 0);
+            }
         }
+        return slots;
+    }
 
-        if (option != TickSoundOption.OFF)
-        {
-            audioClipManager.play(option.name());
-        }
+    /**
+     * How many beats the current pattern can rotate through
+     */
+    public int getBeatCount()
+    {
+        return pattern.getBeatCount();
     }
 
     /**
-     * Plays the configured sound for the given tick (1–8) using the ALTERNATE set
+     * How many ticks the given beat loops through
      */
-    private void playBeat2(int tickCount)
+    public int getTickCount(int beatNumber)
     {
-        TickSoundOption option;
+        return pattern.getTickCount(beatNumber);
+    }
 
-        switch (tickCount)
-        {
-            case 1: option = config.beat2Tick1Sound(); break;
-            case 2: option = config.beat2Tick2Sound(); break;
-            case 3: option = config.beat2Tick3Sound(); break;
-            case 4: option = config.beat2Tick4Sound(); break;
-            case 5: option = config.beat2Tick5Sound(); break;
-            case 6: option = config.beat2Tick6Sound(); break;
-            case 7: option = config.beat2Tick7Sound(); break;
-            case 8: option = config.beat2Tick8Sound(); break;
-            default: option = TickSoundOption.OFF; break;
-        }
+    /**
+     * Starts watching the sample folder from the config, call again whenever that config changes.
+     * The pattern is compiled again whenever a sample is added or removed so it can use it by name.
+     */
+    public void updateSampleDirectory()
+    {
+        audioClipManager.setSampleDirectory(config.sampleDirectory(), this::updatePattern);
+    }
 
-        if (option != TickSoundOption.OFF)
+    /**
+     * Starts the audio engine selected in the config, call again whenever that config changes
+     */
+    public void updateAudioEngine()
+    {
+        audioClipManager.setEngine(config.audioEngine());
+    }
+
+    /**
+     * Releases any open audio lines
+     */
+    public void shutDown()
+    {
+        audioClipManager.shutDown();
+    }
+
+
+    /**
+     * Checks if sounds can be handed over ahead of their tick and still start exactly on it
+     */
+    public boolean canScheduleAhead()
+    {
+        return audioClipManager.canScheduleAhead();
+    }
+
+    /**
+     * Renders cycles of the current pattern into a sink as fast as they can be mixed, one tick every tick period
+     * @return false if the sink couldn't be opened
+     */
+    public boolean render(int cycles, long tickPeriodNanos, AudioSink sink)
+    {
+        return audioClipManager.render(pattern, cycles, tickPeriodNanos, sink);
+    }
+
+    /**
+     * How long the selected engine takes to get a sound to the speaker, in nanoseconds
+     */
+    public long getOutputLatencyNanos()
+    {
+        return audioClipManager.getOutputLatencyNanos();
+    }
+
+    /**
+     * Determines which tick to play on which beat and hands it to the audio thread through the calling thread's
+     * producer, starting it at the given System.nanoTime or PLAY_NOW
+     */
+    public void playSound(AudioDispatcher.Producer producer, int beatNumber, int tickCount, long tickNanoTime)
+    {
+        SoundHandle handle = pattern.get(beatNumber, tickCount);
+        if (handle != null)
         {
-            audioClipManager.play(option.name());
+            producer.offer(handle, tickNanoTime);
         }
     }
 
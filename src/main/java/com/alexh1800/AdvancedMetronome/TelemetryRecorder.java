@@ -0,0 +1,233 @@
+package com.alexh1800.AdvancedMetronome;
+
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.RuneLite;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TelemetryRecorder keeps fixed-width binary records of tick timing and sound loading in a preallocated ring buffer.
+ * Recording is a few array writes with no formatting, locking or I/O, so it's safe on the client, timing and loader
+ * threads. When enabled a background thread drains the ring to a file in the RuneLite directory, when disabled
+ * recording returns straight away. TelemetryDecoder, a tool in the test sources, turns the files into CSV.
+ */
+@Slf4j
+@Singleton
+public class TelemetryRecorder
+{
+    // Event types, the first field of every record
+    static final int GAME_TICK = 1;         // id: game ticks this session, value1: interval since the last, value2: error from the prediction
+    static final int GAME_TICK_IGNORED = 2; // As GAME_TICK, for arrivals the estimator rejected as outliers
+    static final int LOCAL_TICK = 3;        // id: local ticks this session, value1: interval since the last, value2: wakeup error
+    static final int SOUND_LOADED = 4;      // id: sound id, value1: decoded bytes, value2: time taken to decode
+    static final int TRIGGER_DROPPED = 5;   // id: tick sounds dropped this session, value1: how late it was, 0 if its ring was full, value2: sound id
+
+    // File layout: a header then RECORD_SIZE byte records, all big-endian
+    static final int MAGIC = 0x414D544C; // "AMTL"
+    static final int VERSION = 1;
+    static final int RECORD_SIZE = 32;   // int type, int id, long nanoTime, long value1, long value2
+
+    private static final int CAPACITY = 4096; // Records held before they're dropped, about 20 minutes of ticks
+    private static final long DRAIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(250);
+
+    // The ring, four longs per record: type and id packed together, then nanoTime, value1 and value2
+    private final long[] slots = new long[CAPACITY * 4];
+
+    // The sequence number + 1 each slot was last written for, so the drain thread knows when a record is complete
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+
+    private final AtomicLong writeSequence = new AtomicLong(); // Next sequence a recording thread will claim
+    private volatile long readSequence = 0;                    // Next sequence the drain thread will write out
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean enabled = false;
+    private Thread drainThread;
+
+    // Where the telemetry files are written
+    private final File directory;
+
+    @Inject
+    public TelemetryRecorder()
+    {
+        this(new File(RuneLite.RUNELITE_DIR, "advanced-metronome"));
+    }
+
+    TelemetryRecorder(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Starts or stops writing telemetry to a new file. Nothing is recorded while disabled.
+     */
+    public synchronized void setEnabled(boolean enable)
+    {
+        if (enable == enabled)
+        {
+            return;
+        }
+
+        if (enable)
+        {
+            File file = createFile();
+            FileChannel channel;
+            try
+            {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            catch (IOException e)
+            {
+                log.error("Unable to open telemetry file: {}", file, e);
+                return;
+            }
+
+            // Anything left from a previous session was already written or dropped
+            readSequence = writeSequence.get();
+            enabled = true;
+            drainThread = new Thread(() -> drain(channel), "Advanced Metronome Telemetry");
+            drainThread.setDaemon(true);
+            drainThread.start();
+            log.info("Writing telemetry to {}", file);
+        }
+        else
+        {
+            enabled = false;
+            LockSupport.unpark(drainThread);
+            try
+            {
+                drainThread.join(1000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            drainThread = null;
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * How many records were dropped because the drain thread fell a whole ring behind
+     */
+    public long getDroppedRecords()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Adds a record to the ring, or drops it if the ring is full. Never blocks or allocates.
+     */
+    public void record(int type, int id, long nanoTime, long value1, long value2)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+
+        long sequence;
+        do
+        {
+            sequence = writeSequence.get();
+            if (sequence - readSequence >= CAPACITY)
+            {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        while (!writeSequence.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & (CAPACITY - 1));
+        int base = slot * 4;
+        slots[base] = ((long) type << 32) | (id & 0xFFFFFFFFL);
+        slots[base + 1] = nanoTime;
+        slots[base + 2] = value1;
+        slots[base + 3] = value2;
+
+        // Publishing after the writes makes them visible to the drain thread when it sees this
+        published.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * Writes completed records to the file every DRAIN_INTERVAL until disabled, then writes whatever is left.
+     */
+    private void drain(FileChannel channel)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(CAPACITY * RECORD_SIZE);
+        try (FileChannel file = channel)
+        {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0);
+            boolean running = true;
+            while (running)
+            {
+                running = enabled;
+                drainInto(buffer);
+                buffer.flip();
+                while (buffer.hasRemaining())
+                {
+                    file.write(buffer);
+                }
+                buffer.clear();
+
+                if (running)
+                {
+                    LockSupport.parkNanos(this, DRAIN_INTERVAL);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to write telemetry, stopping", e);
+            enabled = false;
+        }
+    }
+
+    private void drainInto(ByteBuffer buffer)
+    {
+        long sequence = readSequence;
+        while (buffer.remaining() >= RECORD_SIZE)
+        {
+            int slot = (int) (sequence & (CAPACITY - 1));
+            if (published.get(slot) != sequence + 1)
+            {
+                break; // Not claimed yet, or claimed and still being written
+            }
+
+            int base = slot * 4;
+            buffer.putInt((int) (slots[base] >>> 32))
+                    .putInt((int) slots[base])
+                    .putLong(slots[base + 1])
+                    .putLong(slots[base + 2])
+                    .putLong(slots[base + 3]);
+            sequence++;
+        }
+        // Frees the slots for recording threads
+        readSequence = sequence;
+    }
+
+    private File createFile()
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            log.warn("Unable to create telemetry directory: {}", directory);
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        return new File(directory, "telemetry-" + timestamp + ".bin");
+    }
+}
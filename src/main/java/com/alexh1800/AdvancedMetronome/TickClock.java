@@ -0,0 +1,117 @@
+package com.alexh1800.AdvancedMetronome;
+
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TickClock publishes LocalTickManager's prediction of the server ticks so anything else that needs tick timing can
+ * share the one clock instead of running its own. Reading it is a single volatile read of an immutable
+ * TickPrediction, with no locks or allocation. Listeners are fired by the tick timing thread a set time before each
+ * predicted tick, from the same wait that lands the local ticks, so they get the same precision and firing them
+ * allocates nothing.
+ * Other plugins can't inject it as it's bound in this plugin's own injector; they get it from
+ * AdvancedMetronomePlugin.getTickClock().
+ */
+@Singleton
+public class TickClock
+{
+    // Listeners are armed when the tick before is scheduled, so they can't ask for more than this
+    static final long MAX_LEAD = TickEstimator.NOMINAL_PERIOD / 2;
+
+    /**
+     * A listener and how long before each tick it fires
+     */
+    static final class Registration
+    {
+        final TickListener listener;
+        final long lead;
+
+        // The tick this is waiting to fire for, 0 if it isn't, only touched by the tick timing thread
+        long armedFor = 0;
+
+        Registration(TickListener listener, long lead)
+        {
+            this.listener = listener;
+            this.lead = lead;
+        }
+    }
+
+    private volatile TickPrediction prediction = TickPrediction.NONE;
+
+    // Replaced as a whole on every change, so the tick thread can walk it without a lock or an iterator
+    private volatile Registration[] listeners = new Registration[0];
+
+    /**
+     * The latest prediction, never null
+     */
+    public TickPrediction getPrediction()
+    {
+        return prediction;
+    }
+
+    /**
+     * When the next server tick is predicted to land as a System.nanoTime, or 0 if the tick clock isn't running
+     */
+    public long getNextTickNanos()
+    {
+        return prediction.getNextTickNanos();
+    }
+
+    /**
+     * Gets how far through the current tick the given System.nanoTime is, from 0 at the tick to 1 at the next
+     */
+    public double getPhase(long nanoTime)
+    {
+        return prediction.getPhase(nanoTime);
+    }
+
+    /**
+     * How far to trust the prediction, from 0 to 1
+     */
+    public double getConfidence()
+    {
+        return prediction.getConfidence();
+    }
+
+    /**
+     * Has the listener called the given time before every predicted tick, starting from the tick after the one in
+     * progress. The lead is kept between 0 and half a tick.
+     * A tick that comes sooner than the lead after the one before it, as happens when the clock resyncs, is skipped.
+     */
+    public synchronized void addListener(TickListener listener, long lead, TimeUnit unit)
+    {
+        long nanos = Math.max(0, Math.min(unit.toNanos(lead), MAX_LEAD));
+        Registration[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[updated.length - 1] = new Registration(listener, nanos);
+        listeners = updated;
+    }
+
+    /**
+     * Stops calling the listener, it may still be called once if its tick is already being fired
+     */
+    public synchronized void removeListener(TickListener listener)
+    {
+        Registration[] current = listeners;
+        Registration[] updated = new Registration[current.length];
+        int count = 0;
+        for (Registration registration : current)
+        {
+            if (registration.listener != listener)
+            {
+                updated[count++] = registration;
+            }
+        }
+        listeners = Arrays.copyOf(updated, count);
+    }
+
+    void publish(TickPrediction prediction)
+    {
+        this.prediction = prediction;
+    }
+
+    Registration[] getListeners()
+    {
+        return listeners;
+    }
+}
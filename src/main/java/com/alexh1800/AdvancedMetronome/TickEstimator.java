@@ -0,0 +1,241 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the server's tick period and phase from a window of recent game tick arrival times.
+ * A line is fitted through arrival time against tick number, so the phase and period both come out of the same fit.
+ * Arrivals that land far from the line (lag spikes, a frozen client catching up) are left out, so a single late tick
+ * barely moves the estimate while real drift is followed within a few ticks.
+ */
+class TickEstimator
+{
+    static final long NOMINAL_PERIOD = TimeUnit.MILLISECONDS.toNanos(600);
+
+    private static final int WINDOW = 32;              // Arrivals kept for the fit, about 19 seconds
+    private static final int MIN_PERIOD_POINTS = 8;    // Fewer arrivals than this only fit the phase, not the period
+    private static final long MAX_PERIOD_ERROR = TimeUnit.MILLISECONDS.toNanos(10); // The server never drifts further than this
+    private static final long MIN_OUTLIER_ERROR = TimeUnit.MILLISECONDS.toNanos(8); // Never treat arrivals closer than this as outliers
+    private static final double OUTLIER_DEVIATIONS = 4; // How many typical deviations away an arrival has to be to get ignored
+    private static final int RELOCK_OUTLIERS = 4;       // This many outliers in a row a period apart means the cadence itself has moved
+    private static final long CONFIDENT_JITTER = TimeUnit.MILLISECONDS.toNanos(2); // Jitter that halves the confidence
+
+    // Ring buffer of the arrivals in the window, with the tick number each one was
+    private final long[] arrivals = new long[WINDOW];
+    private final long[] tickNumbers = new long[WINDOW];
+    private int count = 0;
+    private int head = 0;
+    private long nextTickNumber = 0;
+
+    // Scratch space for the fit, reused so an arrival doesn't allocate
+    private final double[] fitX = new double[WINDOW];
+    private final double[] fitY = new double[WINDOW];
+    private final double[] residuals = new double[WINDOW];
+    private final double[] line = new double[2]; // Intercept and slope of the latest fit
+
+    // The current estimate: when tick anchorTickNumber happened and how far apart ticks are
+    private long anchorTime = 0;
+    private long anchorTickNumber = 0;
+    private long period = NOMINAL_PERIOD;
+    private long jitter = 0;           // Typical distance of an arrival from the fitted line
+    private long lastError = 0;        // How far the latest arrival was from where it was predicted
+    private int consecutiveOutliers = 0;
+    private long lastOutlierTime = 0;
+
+    /**
+     * Adds a game tick arrival and refits the estimate.
+     * @return true if the arrival was used, false if it was rejected as an outlier
+     */
+    synchronized boolean addArrival(long nanoTime)
+    {
+        if (count > 0)
+        {
+            lastError = nanoTime - predict(nextTickNumber);
+            double threshold = Math.max(MIN_OUTLIER_ERROR, OUTLIER_DEVIATIONS * jitter);
+
+            if (Math.abs(lastError) > threshold)
+            {
+                // Ticks bunched up behind a frozen client are all outliers, but they aren't a period apart
+                // like a server that really moved would be, so they don't add up to a relock
+                boolean periodApart = Math.abs(nanoTime - lastOutlierTime - period) <= threshold;
+                consecutiveOutliers = consecutiveOutliers > 0 && periodApart ? consecutiveOutliers + 1 : 1;
+                lastOutlierTime = nanoTime;
+
+                if (consecutiveOutliers < RELOCK_OUTLIERS)
+                {
+                    nextTickNumber++;
+                    return false;
+                }
+
+                // The arrivals have settled somewhere else, start again from this one
+                reset();
+            }
+        }
+        consecutiveOutliers = 0;
+
+        arrivals[head] = nanoTime;
+        tickNumbers[head] = nextTickNumber++;
+        head = (head + 1) % WINDOW;
+        count = Math.min(count + 1, WINDOW);
+
+        fit();
+        return true;
+    }
+
+    /**
+     * Fits the line twice, the second time without the arrivals that sat far from the first.
+     */
+    private void fit()
+    {
+        // Work relative to the newest arrival so the numbers stay small enough for doubles to be exact
+        int newest = (head - 1 + WINDOW) % WINDOW;
+        long referenceTime = arrivals[newest];
+        long referenceTick = tickNumbers[newest];
+
+        for (int i = 0; i < count; i++)
+        {
+            fitX[i] = tickNumbers[i] - referenceTick;
+            fitY[i] = arrivals[i] - referenceTime;
+        }
+
+        fitLine(count);
+
+        // Drop anything further from the line than a few median deviations and fit again
+        for (int i = 0; i < count; i++)
+        {
+            residuals[i] = Math.abs(fitY[i] - (line[0] + line[1] * fitX[i]));
+        }
+        double deviation = median(residuals, count) * 1.4826;
+        double threshold = Math.max(MIN_OUTLIER_ERROR, OUTLIER_DEVIATIONS * deviation);
+
+        int inliers = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (Math.abs(fitY[i] - (line[0] + line[1] * fitX[i])) <= threshold)
+            {
+                fitX[inliers] = fitX[i];
+                fitY[inliers] = fitY[i];
+                inliers++;
+            }
+        }
+        if (inliers > 0)
+        {
+            fitLine(inliers);
+        }
+
+        anchorTime = referenceTime + (long) line[0];
+        anchorTickNumber = referenceTick;
+        period = (long) line[1];
+        jitter = (long) deviation;
+    }
+
+    /**
+     * Least squares fit of the first n points in fitX/fitY, giving line[0] as the intercept and line[1] as the slope.
+     * The slope is pinned to the nominal period until there are enough points to trust it.
+     */
+    private void fitLine(int n)
+    {
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < n; i++)
+        {
+            meanX += fitX[i];
+            meanY += fitY[i];
+        }
+        meanX /= n;
+        meanY /= n;
+
+        double slope = NOMINAL_PERIOD;
+        if (n >= MIN_PERIOD_POINTS)
+        {
+            double covariance = 0;
+            double variance = 0;
+            for (int i = 0; i < n; i++)
+            {
+                covariance += (fitX[i] - meanX) * (fitY[i] - meanY);
+                variance += (fitX[i] - meanX) * (fitX[i] - meanX);
+            }
+            if (variance > 0)
+            {
+                slope = Math.max(NOMINAL_PERIOD - MAX_PERIOD_ERROR,
+                        Math.min(NOMINAL_PERIOD + MAX_PERIOD_ERROR, covariance / variance));
+            }
+        }
+
+        line[0] = meanY - slope * meanX;
+        line[1] = slope;
+    }
+
+    private static double median(double[] values, int n)
+    {
+        // Sorting the residuals in place is fine, they're recalculated before every use
+        Arrays.sort(values, 0, n);
+        return n % 2 == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+    }
+
+    private long predict(long tickNumber)
+    {
+        return anchorTime + (tickNumber - anchorTickNumber) * period;
+    }
+
+    /**
+     * Gets the first predicted server tick strictly after the given System.nanoTime.
+     * With no arrivals yet this is simply one nominal period later.
+     */
+    synchronized long predictAfter(long nanoTime)
+    {
+        if (count == 0)
+        {
+            return nanoTime + NOMINAL_PERIOD;
+        }
+
+        long ticks = Math.floorDiv(nanoTime - anchorTime, period) + 1;
+        return anchorTime + ticks * period;
+    }
+
+    synchronized long getPeriod()
+    {
+        return period;
+    }
+
+    /**
+     * Typical distance of an arrival from the estimate, in nanoseconds
+     */
+    synchronized long getJitter()
+    {
+        return jitter;
+    }
+
+    /**
+     * How far to trust the estimate, from 0 with no arrivals to 1 with a full window of perfectly steady ones.
+     * Scaled down by the jitter and by any outliers in a row, which could be the start of a relock.
+     */
+    synchronized double getConfidence()
+    {
+        double filled = (double) count / WINDOW;
+        double steadiness = 1 / (1 + (double) jitter / CONFIDENT_JITTER);
+        double settled = 1 - (double) consecutiveOutliers / RELOCK_OUTLIERS;
+        return filled * steadiness * settled;
+    }
+
+    /**
+     * How far the latest arrival was from where it was predicted, in nanoseconds, positive if it was late
+     */
+    synchronized long getLastError()
+    {
+        return lastError;
+    }
+
+    synchronized void reset()
+    {
+        count = 0;
+        head = 0;
+        nextTickNumber = 0;
+        anchorTime = 0;
+        anchorTickNumber = 0;
+        period = NOMINAL_PERIOD;
+        jitter = 0;
+        consecutiveOutliers = 0;
+    }
+}
@@ -0,0 +1,163 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of nanosecond times that never allocates after construction.
+ * Values are bucketed by how far they are from an origin, e.g. 600ms for tick intervals, so the precision goes where
+ * the values cluster. Distances are exact below 64ns and then every power of two is split into 32 steps, so percentiles
+ * come back within about 3% of their distance from the origin. The minimum and maximum are exact.
+ * Meant for one thread recording while any thread reads, reads may be a value or two behind.
+ */
+public class TickHistogram
+{
+    private static final int LINEAR_BUCKETS = 64; // Distances below this get a bucket each
+    private static final int SUB_BITS = 5;        // Each power of two above that is split into 2^SUB_BITS buckets
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int FIRST_EXPONENT = 6;  // log2(LINEAR_BUCKETS)
+
+    // Buckets for one side of the origin, the ones below it are stored in reverse so the whole array is in order
+    private static final int SIDE_BUCKETS = LINEAR_BUCKETS + (63 - FIRST_EXPONENT) * SUB_BUCKETS;
+
+    private final long origin;
+    private final AtomicLongArray counts = new AtomicLongArray(SIDE_BUCKETS * 2);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param origin The value recordings are expected to cluster around, in nanoseconds
+     */
+    public TickHistogram(long origin)
+    {
+        this.origin = origin;
+    }
+
+    public void record(long nanos)
+    {
+        long distance = nanos - origin;
+        int bucket = distance >= 0
+                ? SIDE_BUCKETS + bucketOf(distance)
+                : SIDE_BUCKETS - 1 - bucketOf(distance == Long.MIN_VALUE ? Long.MAX_VALUE : -distance);
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+
+        // Only one thread records, so these never actually have to retry
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos))
+        {
+            current = max.get();
+        }
+        current = min.get();
+        while (nanos < current && !min.compareAndSet(current, nanos))
+        {
+            current = min.get();
+        }
+    }
+
+    /**
+     * Gets the value the given fraction of recordings are at or below, e.g. 0.99 for p99.
+     * @return The middle of the bucket the percentile falls in, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double fraction)
+    {
+        long count = total.get();
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < SIDE_BUCKETS * 2; bucket++)
+        {
+            seen += counts.get(bucket);
+            if (seen >= rank)
+            {
+                long value = bucket >= SIDE_BUCKETS
+                        ? origin + bucketMiddle(bucket - SIDE_BUCKETS)
+                        : origin - bucketMiddle(SIDE_BUCKETS - 1 - bucket);
+
+                // Never report past the values actually seen
+                return Math.max(min.get(), Math.min(max.get(), value));
+            }
+        }
+        return max.get();
+    }
+
+    public long getP50()
+    {
+        return getPercentile(0.50);
+    }
+
+    public long getP99()
+    {
+        return getPercentile(0.99);
+    }
+
+    /**
+     * @return The smallest value recorded, or 0 if nothing has been recorded
+     */
+    public long getMin()
+    {
+        return total.get() == 0 ? 0 : min.get();
+    }
+
+    /**
+     * @return The largest value recorded, or 0 if nothing has been recorded
+     */
+    public long getMax()
+    {
+        return total.get() == 0 ? 0 : max.get();
+    }
+
+    public long getCount()
+    {
+        return total.get();
+    }
+
+    public void reset()
+    {
+        for (int bucket = 0; bucket < SIDE_BUCKETS * 2; bucket++)
+        {
+            counts.set(bucket, 0);
+        }
+        total.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "p50 " + getP50() / 1000 + "µs, p99 " + getP99() / 1000 + "µs, max " + getMax() / 1000
+                + "µs over " + getCount();
+    }
+
+    private static int bucketOf(long distance)
+    {
+        if (distance < LINEAR_BUCKETS)
+        {
+            return (int) distance;
+        }
+
+        // Keep the top SUB_BITS + 1 bits, the leading one picks the power of two and the rest the step within it
+        int exponent = 63 - Long.numberOfLeadingZeros(distance);
+        int step = (int) (distance >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + step;
+    }
+
+    private static long bucketMiddle(int bucket)
+    {
+        if (bucket < LINEAR_BUCKETS)
+        {
+            return bucket;
+        }
+
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        long step = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return step * width + width / 2;
+    }
+}
@@ -0,0 +1,13 @@
+package com.alexh1800.AdvancedMetronome;
+
+/**
+ * Gets told about each predicted tick a fixed time before it lands, see TickClock.addListener.
+ */
+public interface TickListener
+{
+    /**
+     * Called on the tick timing thread, so it has to return quickly and shouldn't block
+     * @param tickNanoTime The System.nanoTime the tick is predicted to land at
+     */
+    void onUpcomingTick(long tickNanoTime);
+}
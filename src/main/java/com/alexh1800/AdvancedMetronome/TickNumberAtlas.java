@@ -0,0 +1,131 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * The digits 0-9 pre-rendered with their black outline into a single image for one font size and colour.
+ * Drawing a tick number is then one drawImage per digit instead of building a Font, measuring the text and
+ * drawing the string five times every frame.
+ */
+class TickNumberAtlas
+{
+    private static final int OUTLINE = 1; // Outline thickness in pixels, drawn on every side of a digit
+
+    private final BufferedImage image;
+    private final int[] digitX = new int[10];     // Left edge of each digit's cell in the image
+    private final int[] digitWidth = new int[10]; // Advance width of each digit, without the outline
+    private final int ascent;
+    private final int cellHeight;
+
+    private TickNumberAtlas(BufferedImage image, int ascent, int cellHeight)
+    {
+        this.image = image;
+        this.ascent = ascent;
+        this.cellHeight = cellHeight;
+    }
+
+    /**
+     * Renders the outlined digits in the given size and colour.
+     */
+    static TickNumberAtlas create(int fontSize, Color color)
+    {
+        Font font = new Font("Arial", Font.BOLD, Math.max(1, fontSize));
+
+        // Measure with a throwaway graphics so the atlas can be sized to fit
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D measure = scratch.createGraphics();
+        FontMetrics metrics = measure.getFontMetrics(font);
+        measure.dispose();
+
+        int cellHeight = metrics.getAscent() + metrics.getDescent() + OUTLINE * 2;
+        int totalWidth = 0;
+        int[] widths = new int[10];
+        for (int digit = 0; digit < 10; digit++)
+        {
+            widths[digit] = metrics.charWidth((char) ('0' + digit));
+            totalWidth += widths[digit] + OUTLINE * 2;
+        }
+
+        BufferedImage image = new BufferedImage(totalWidth, cellHeight, BufferedImage.TYPE_INT_ARGB);
+        TickNumberAtlas atlas = new TickNumberAtlas(image, metrics.getAscent(), cellHeight);
+
+        Graphics2D graphics = image.createGraphics();
+        graphics.setFont(font);
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+
+        int x = 0;
+        int baseline = OUTLINE + metrics.getAscent();
+        for (int digit = 0; digit < 10; digit++)
+        {
+            String text = String.valueOf((char) ('0' + digit));
+            int textX = x + OUTLINE;
+
+            // Draw black outline around text (offset by 1 pixel in each direction)
+            graphics.setColor(Color.BLACK);
+            graphics.drawString(text, textX + 1, baseline);
+            graphics.drawString(text, textX - 1, baseline);
+            graphics.drawString(text, textX, baseline + 1);
+            graphics.drawString(text, textX, baseline - 1);
+
+            // Draw actual text in user-selected font color
+            graphics.setColor(color);
+            graphics.drawString(text, textX, baseline);
+
+            atlas.digitX[digit] = x;
+            atlas.digitWidth[digit] = widths[digit];
+            x += widths[digit] + OUTLINE * 2;
+        }
+        graphics.dispose();
+
+        return atlas;
+    }
+
+    int getAscent()
+    {
+        return ascent;
+    }
+
+    /**
+     * Width the number takes up when drawn, not counting the outline.
+     */
+    int width(int number)
+    {
+        number = Math.abs(number);
+        int width = 0;
+        do
+        {
+            width += digitWidth[number % 10];
+            number /= 10;
+        }
+        while (number > 0);
+        return width;
+    }
+
+    /**
+     * Draws the number with its left edge at x and its baseline at y, like drawString would.
+     */
+    void draw(Graphics2D graphics, int number, int x, int y)
+    {
+        number = Math.abs(number);
+        int top = y - ascent - OUTLINE;
+
+        // Digits come off the number right to left, so draw them from the right edge
+        int right = x + width(number);
+        do
+        {
+            int digit = number % 10;
+            int left = right - digitWidth[digit] - OUTLINE;
+            int cellWidth = digitWidth[digit] + OUTLINE * 2;
+
+            graphics.drawImage(image,
+                    left, top, left + cellWidth, top + cellHeight,
+                    digitX[digit], 0, digitX[digit] + cellWidth, cellHeight,
+                    null);
+
+            right -= digitWidth[digit];
+            number /= 10;
+        }
+        while (number > 0);
+    }
+}
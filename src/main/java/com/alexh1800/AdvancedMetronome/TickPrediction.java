@@ -0,0 +1,73 @@
+package com.alexh1800.AdvancedMetronome;
+
+/**
+ * A snapshot of where the local tick clock thinks the server ticks are: when the tick in progress started, when the
+ * next one is predicted and how far to trust that. A new one is published on every local tick and never changes
+ * after, so it can be read from any thread without a lock. All times are System.nanoTime.
+ */
+public final class TickPrediction
+{
+    // Published while the tick clock isn't running
+    static final TickPrediction NONE = new TickPrediction(0, 0, TickEstimator.NOMINAL_PERIOD, 0);
+
+    private final long tickNanos;
+    private final long nextTickNanos;
+    private final long periodNanos;
+    private final double confidence;
+
+    TickPrediction(long tickNanos, long nextTickNanos, long periodNanos, double confidence)
+    {
+        this.tickNanos = tickNanos;
+        this.nextTickNanos = nextTickNanos;
+        this.periodNanos = periodNanos;
+        this.confidence = confidence;
+    }
+
+    /**
+     * When the tick in progress started
+     */
+    public long getTickNanos()
+    {
+        return tickNanos;
+    }
+
+    /**
+     * When the next server tick is predicted to land, or 0 if the tick clock isn't running
+     */
+    public long getNextTickNanos()
+    {
+        return nextTickNanos;
+    }
+
+    /**
+     * The server's tick period as currently estimated
+     */
+    public long getPeriodNanos()
+    {
+        return periodNanos;
+    }
+
+    /**
+     * How far to trust the prediction, from 0 with no game ticks seen to 1 with a full window of steady ones.
+     * It drops as arrivals get noisier and while arrivals are landing away from the prediction.
+     */
+    public double getConfidence()
+    {
+        return confidence;
+    }
+
+    /**
+     * Gets how far through the current tick the given System.nanoTime is, from 0 at the tick to 1 at the next.
+     * @return The phase, or 0 if the tick clock isn't running
+     */
+    public double getPhase(long nanoTime)
+    {
+        if (nextTickNanos == 0)
+        {
+            return 0;
+        }
+
+        double phase = (double) (nanoTime - tickNanos) / (nextTickNanos - tickNanos);
+        return Math.max(0, Math.min(1, phase));
+    }
+}
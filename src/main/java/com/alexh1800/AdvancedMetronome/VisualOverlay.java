@@ -17,15 +17,24 @@ import java.awt.*;
 @Singleton
 public class VisualOverlay extends Overlay
 {
+    private static final int BAR_HEIGHT = 4;          // Thickness of the sweep bar in pixels
+    private static final int BAR_GAP = 4;             // Space between the tick number and the sweep bar
+    private static final Stroke RING_STROKE = new BasicStroke(3);
+
     private final Client client;
-    private final AdvancedMetronomePlugin plugin;
+    private final TickClock tickClock; // How far through the tick we are, for the phase indicators
+    private final MetronomeState state;
     private final AdvancedMetronomeConfig config;
 
+    // Outlined digits in the configured font size and colour, rebuilt after those change
+    private volatile TickNumberAtlas atlas = null;
+
     @Inject
-    public VisualOverlay(Client client, AdvancedMetronomePlugin plugin, AdvancedMetronomeConfig config)
+    public VisualOverlay(Client client, TickClock tickClock, MetronomeState state, AdvancedMetronomeConfig config)
     {
         this.client = client;
-        this.plugin = plugin;
+        this.tickClock = tickClock;
+        this.state = state;
         this.config = config;
 
         // Set the overlay to move with the game world (e.g., above the player)
@@ -34,6 +43,14 @@ public class VisualOverlay extends Overlay
         setLayer(OverlayLayer.ALWAYS_ON_TOP);
     }
 
+    /**
+     * Drops the pre-rendered digits so they're redrawn with the current font size and colour on the next frame
+     */
+    public void invalidateAtlas()
+    {
+        atlas = null;
+    }
+
     @Override
     //note render runs every time the screen is redrawn so works on every game tick without needing to be in onGameTick loop
     public Dimension render(Graphics2D graphics)
@@ -52,39 +69,74 @@ public class VisualOverlay extends Overlay
         }
 
         // Get the current tick number
-        String tickText = String.valueOf(plugin.tickCount);
+        int tickNumber = state.getTickCount();
 
         // Determine where to draw the text (above your character)
+        // An empty string gives the exact point above the player, the atlas does its own centering
         int zOffset = config.textOffset();
-        Point textLocation = player.getCanvasTextLocation(graphics, tickText, zOffset);
+        Point textLocation = player.getCanvasTextLocation(graphics, "", zOffset);
         if (textLocation == null)
         {
             log.info("couldn't calculate text location");
             return null; // Couldn't calculate a position
         }
 
-        // Set font from config
-        graphics.setFont(new Font("Arial", Font.BOLD, config.fontSize()));
-
-        //get the width of text so that it can be centered
-        FontMetrics metrics = graphics.getFontMetrics();
-        int textWidth = metrics.stringWidth(tickText);
+        // The outlined digits are only rendered when the font size or colour changes
+        TickNumberAtlas digits = atlas;
+        if (digits == null)
+        {
+            digits = TickNumberAtlas.create(config.fontSize(), config.fontColor());
+            atlas = digits;
+        }
 
-        //place the text on the screen
-        int x = textLocation.getX() - (textWidth / 2);
+        //place the text on the screen, centered
+        int x = textLocation.getX() - (digits.width(tickNumber) / 2);
         int y = textLocation.getY();
 
-        // Draw black outline around text (offset by 1 pixel in each direction)
-        graphics.setColor(Color.BLACK);
-        graphics.drawString(tickText, x + 1, y);
-        graphics.drawString(tickText, x - 1, y);
-        graphics.drawString(tickText, x, y + 1);
-        graphics.drawString(tickText, x, y - 1);
+        digits.draw(graphics, tickNumber, x, y);
 
-        // Draw actual text in user-selected font color
-        graphics.setColor(config.fontColor());
-        graphics.drawString(tickText, x, y);
+        // Animate the progress through the tick every frame, read from the local tick clock without locking
+        switch (config.phaseIndicator())
+        {
+            case SWEEP_BAR:
+                drawSweepBar(graphics, tickClock.getPhase(System.nanoTime()), textLocation.getX(), y + BAR_GAP);
+                break;
+            case PULSE_RING:
+                drawPulseRing(graphics, tickClock.getPhase(System.nanoTime()), textLocation.getX(), y - digits.getAscent() / 2);
+                break;
+            default:
+                break;
+        }
 
         return null; // No fixed size needed — it's dynamically placed
     }
+
+    /**
+     * Draws an outlined bar centered on x that fills from the left as the tick progresses.
+     */
+    private void drawSweepBar(Graphics2D graphics, double phase, int centerX, int top)
+    {
+        int width = Math.max(20, config.fontSize() * 3 / 2);
+        int left = centerX - width / 2;
+
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(left - 1, top - 1, width + 2, BAR_HEIGHT + 2);
+        graphics.setColor(config.fontColor());
+        graphics.fillRect(left, top, (int) (width * phase), BAR_HEIGHT);
+    }
+
+    /**
+     * Draws a ring around the tick number that starts wide on the tick and closes in as the next one approaches.
+     */
+    private void drawPulseRing(Graphics2D graphics, double phase, int centerX, int centerY)
+    {
+        int minRadius = Math.max(10, config.fontSize() * 3 / 4);
+        int radius = minRadius + (int) (minRadius * (1 - phase));
+
+        Stroke previous = graphics.getStroke();
+        graphics.setStroke(RING_STROKE);
+        graphics.setColor(config.fontColor());
+        graphics.drawOval(centerX - radius, centerY - radius, radius * 2, radius * 2);
+        graphics.setStroke(previous);
+    }
 }
@@ -0,0 +1,119 @@
+package com.alexh1800.AdvancedMetronome;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the mixer's output to a PCM WAV file instead of playing it. Writes never block on a device, so a pattern
+ * renders as fast as it can be mixed, and the same pattern always renders to the same bytes.
+ */
+@Slf4j
+public class WavCaptureSink implements AudioSink
+{
+    private static final int HEADER_SIZE = 44;
+
+    private final File file;
+    private FileChannel channel;
+    private AudioFormat format;
+    private long dataBytes = 0;
+
+    public WavCaptureSink(File file)
+    {
+        this.file = file;
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferBytes) throws LineUnavailableException
+    {
+        this.format = format;
+        dataBytes = 0;
+        try
+        {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            // The sizes are filled in on close, once they're known
+            channel.write(header(), 0);
+        }
+        catch (IOException e)
+        {
+            LineUnavailableException unavailable = new LineUnavailableException("Unable to open " + file);
+            unavailable.initCause(e);
+            throw unavailable;
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length)
+    {
+        try
+        {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, offset, length);
+            while (bytes.hasRemaining())
+            {
+                channel.write(bytes, HEADER_SIZE + dataBytes + bytes.position() - offset);
+            }
+            dataBytes += length;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to write " + file, e);
+        }
+    }
+
+    @Override
+    public long getFramePosition()
+    {
+        return dataBytes / format.getFrameSize();
+    }
+
+    @Override
+    public void close()
+    {
+        if (channel == null)
+        {
+            return;
+        }
+
+        try (FileChannel closing = channel)
+        {
+            closing.write(header(), 0);
+        }
+        catch (IOException e)
+        {
+            log.error("Unable to finish writing {}", file, e);
+        }
+        channel = null;
+    }
+
+    /**
+     * A canonical 44 byte WAV header for little-endian PCM of the current length
+     */
+    private ByteBuffer header()
+    {
+        int channels = format.getChannels();
+        int sampleRate = (int) format.getSampleRate();
+        int frameSize = format.getFrameSize();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt((int) (HEADER_SIZE - 8 + dataBytes)).put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        header.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16)
+                .putShort((short) 1)                       // PCM
+                .putShort((short) channels)
+                .putInt(sampleRate)
+                .putInt(sampleRate * frameSize)            // Bytes per second
+                .putShort((short) frameSize)
+                .putShort((short) format.getSampleSizeInBits());
+        header.put("data".getBytes(StandardCharsets.US_ASCII)).putInt((int) dataBytes);
+        header.flip();
+        return header;
+    }
+}
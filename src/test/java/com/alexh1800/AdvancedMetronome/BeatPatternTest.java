@@ -0,0 +1,89 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BeatPatternTest
+{
+    @Test
+    public void parsesBeatsAndTicks()
+    {
+        BeatPattern.Slot[][] beats = BeatPattern.parse("kick-thump, tick-hihat | clap-high\ntick-snare, off, tick-hihat");
+
+        assertEquals(3, beats.length);
+        assertEquals(2, beats[0].length);
+        assertEquals(1, beats[1].length);
+        assertEquals(3, beats[2].length);
+        assertArrayEquals(new String[] {"kick-thump"}, beats[0][0].soundNames);
+        assertArrayEquals(new String[] {"off"}, beats[2][1].soundNames);
+    }
+
+    @Test
+    public void skipsBlankBeats()
+    {
+        BeatPattern.Slot[][] beats = BeatPattern.parse(" | tick-hihat |\n\n| ");
+        assertEquals(1, beats.length);
+        assertEquals(0, BeatPattern.parse("").length);
+    }
+
+    @Test
+    public void parsesLayers()
+    {
+        BeatPattern.Slot[] ticks = BeatPattern.parse("kick-thump+tick-hihat+clap-high, tick-snare")[0];
+
+        assertEquals(2, ticks.length);
+        assertArrayEquals(new String[] {"kick-thump", "tick-hihat", "clap-high"}, ticks[0].soundNames);
+        assertArrayEquals(new String[] {"tick-snare"}, ticks[1].soundNames);
+    }
+
+    @Test
+    public void parsesGainAndPan()
+    {
+        BeatPattern.Slot slot = BeatPattern.parse("kick-thump+tick-hihat@-6db@l50")[0][0];
+
+        assertArrayEquals(new String[] {"kick-thump", "tick-hihat"}, slot.soundNames);
+        assertEquals(-6, slot.gainDb, 0);
+        assertEquals(-50, slot.pan);
+
+        BeatPattern.Slot right = BeatPattern.parse("tick-hihat@R30@+2.5DB")[0][0];
+        assertEquals(2.5, right.gainDb, 0);
+        assertEquals(30, right.pan);
+        assertEquals(0, BeatPattern.parse("tick-hihat@r30@c")[0][0].pan);
+    }
+
+    @Test
+    public void clampsGainAndPan()
+    {
+        assertEquals(12, BeatPattern.parse("tick-hihat@+40db")[0][0].gainDb, 0);
+        assertEquals(-60, BeatPattern.parse("tick-hihat@-200db")[0][0].gainDb, 0);
+        assertEquals(-100, BeatPattern.parse("tick-hihat@l150")[0][0].pan);
+    }
+
+    @Test
+    public void spacesAroundSeparatorsDontMakeTicks()
+    {
+        BeatPattern.Slot[] ticks = BeatPattern.parse("  kick-thump + tick-hihat @ -6db ,, tick-snare ,")[0];
+
+        assertEquals(2, ticks.length);
+        assertArrayEquals(new String[] {"kick-thump", "tick-hihat"}, ticks[0].soundNames);
+        assertEquals(-6, ticks[0].gainDb, 0);
+        assertArrayEquals(new String[] {"tick-snare"}, ticks[1].soundNames);
+    }
+
+    @Test
+    public void panPastAnIntIsClamped()
+    {
+        assertEquals(-100, BeatPattern.parse("tick-hihat@l99999999999")[0][0].pan);
+        assertEquals(7, BeatPattern.parse("tick-hihat@r0000000000007")[0][0].pan);
+    }
+
+    @Test
+    public void ignoresUnknownModifiers()
+    {
+        BeatPattern.Slot slot = BeatPattern.parse("tick-hihat@loud@-3db")[0][0];
+        assertEquals(-3, slot.gainDb, 0);
+        assertEquals(0, slot.pan);
+    }
+}
@@ -0,0 +1,251 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs LocalTickManager against a day of synthetic game ticks on a virtual clock and checks it keeps up.
+ * The server period drifts slowly, arrivals have network jitter, lag spikes and the odd frozen client, the player
+ * world hops every 45 minutes and the server's phase occasionally jumps without a hop. The timing thread is simulated
+ * too, waking a little late and now and then very late.
+ * Every local tick plays a sound through the null mixer, and at the end every audio line opened has to have been
+ * closed, which catches Clips that never get their STOP. A TickClock listener checks it's called LISTENER_LEAD
+ * before every local tick. The tick simulation takes about a second a day, with CLIP_PER_TICK most of the run is
+ * Java Sound opening a Clip for every tick.
+ * Usage: LocalTickManagerSoak [hours] [audio engine], defaults to 24 and CLIP_PER_TICK. Exits with 1 on failure.
+ * gradle soak runs it with these defaults, and gradle check runs a day with MIXER and two hours with CLIP_PER_TICK.
+ */
+public class LocalTickManagerSoak
+{
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long NOMINAL_PERIOD = 600 * MS;
+
+    private static final long HOP_EVERY = TimeUnit.MINUTES.toNanos(45);
+    private static final long HOP_GAP = TimeUnit.SECONDS.toNanos(8);       // No ticks while loading the new world
+    private static final int PHASE_JUMP_EVERY = 20_000;                    // Ticks between server phase jumps
+    private static final int SETTLE_TICKS = 8;                             // Local ticks left out of the stats after a jump
+    private static final long LISTENER_LEAD = 50 * MS;                     // How early the TickClock listener asks to be called
+
+    // Pass/fail bounds
+    private static final long MAX_P99_PHASE_ERROR = 4 * MS;
+    private static final long MAX_PHASE_ERROR = 25 * MS;
+
+    private final Random random = new Random(1800);
+    private long now = 0;
+
+    // The true server ticks, generated as they're needed. Arrivals and the phase error each keep their own place in
+    // them, since arrivals fall behind while the client is frozen
+    private static final int SERVER_TICK_HISTORY = 64;
+    private final long[] serverTickTimes = new long[SERVER_TICK_HISTORY];
+    private int serverTicks = 0;       // How many have been generated
+    private int arrivalCursor = 0;     // The next one the client will see
+    private int measureCursor = 0;     // The first one after the last local tick
+    private long nextServerTick = TimeUnit.SECONDS.toNanos(1);
+
+    // When the timing thread was meant to wake, so its lateness can be taken back out of the phase error
+    private long intendedWake = 0;
+    private int settleTicks = 0;
+
+    private final TickHistogram phaseErrors = new TickHistogram(0);
+    private int localTicks = 0;
+    private int phaseJumps = 0;
+    private int hops = 0;
+
+    // TickClock listener calls, and the ones that weren't LISTENER_LEAD before their tick
+    private int listenerCalls = 0;
+    private int listenerMisses = 0;
+
+    public static void main(String[] args) throws Exception
+    {
+        // Play through the null mixer, this has to happen before anything touches Java Sound
+        System.setProperty("advancedMetronome.nullMixer", "true");
+        System.setProperty("javax.sound.sampled.Clip", NullMixer.PROPERTY_VALUE);
+        System.setProperty("javax.sound.sampled.SourceDataLine", NullMixer.PROPERTY_VALUE);
+
+        double hours = args.length > 0 ? Double.parseDouble(args[0]) : 24;
+        AudioEngineOption engine = args.length > 1 ? AudioEngineOption.valueOf(args[1]) : AudioEngineOption.CLIP_PER_TICK;
+
+        boolean passed = new LocalTickManagerSoak().run((long) (hours * TimeUnit.HOURS.toNanos(1)), engine);
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(long duration, AudioEngineOption engine) throws InterruptedException
+    {
+        AudioClipManager audioClipManager = new AudioClipManager(new TelemetryRecorder());
+        audioClipManager.loadAllAudioFiles();
+        audioClipManager.setEngine(engine);
+        SoundHandle sound = audioClipManager.getHandle(TickSoundOption.TICK_HIHAT);
+
+        TickClock tickClock = new TickClock();
+        tickClock.addListener(tickNanoTime -> {
+            listenerCalls++;
+            if (intendedWake != tickNanoTime - LISTENER_LEAD)
+            {
+                listenerMisses++;
+            }
+        }, LISTENER_LEAD, TimeUnit.NANOSECONDS);
+
+        LocalTickManager manager = new LocalTickManager(() -> {
+            onLocalTick();
+            audioClipManager.play(sound, AudioClipManager.PLAY_NOW);
+        }, tickNanoTime -> { }, new TelemetryRecorder(), tickClock, () -> now, false);
+
+        long started = System.nanoTime();
+        long nextHop = HOP_EVERY;
+        long nextArrival = arrivalFor(serverTickAt(arrivalCursor));
+        long nextStep = Long.MAX_VALUE;
+
+        while (now < duration)
+        {
+            if (now >= nextHop)
+            {
+                // World hop: the client resets, ticks stop for a while and the new world has its own phase
+                manager.reset();
+                hops++;
+                nextHop += HOP_EVERY;
+                nextStep = Long.MAX_VALUE;
+                nextServerTick = Math.max(nextServerTick, now) + HOP_GAP + random.nextInt(600) * MS;
+                arrivalCursor = serverTicks;
+                nextArrival = arrivalFor(serverTickAt(arrivalCursor));
+                continue;
+            }
+
+            if (nextArrival <= nextStep)
+            {
+                now = Math.max(now, nextArrival);
+                manager.onGameTick(null); // The event carries nothing LocalTickManager uses
+                arrivalCursor++;
+                nextArrival = Math.max(nextArrival, arrivalFor(serverTickAt(arrivalCursor)));
+            }
+            else
+            {
+                now = nextStep;
+            }
+
+            // Let the tick loop catch up, then pick when the timing thread would wake next
+            long due = manager.step(now);
+            while (due <= now)
+            {
+                due = manager.step(now);
+            }
+            intendedWake = due;
+            nextStep = due + wakeLateness();
+        }
+
+        double confidence = tickClock.getConfidence();
+        audioClipManager.shutDown();
+        manager.shutdown();
+        long elapsed = System.nanoTime() - started;
+
+        // Give the Clips still playing time to report STOP and close
+        for (int i = 0; i < 50 && NullMixer.getLinesOpened() != NullMixer.getLinesClosed(); i++)
+        {
+            Thread.sleep(100);
+        }
+
+        System.out.printf("Simulated %.1f hours in %.1f seconds with %s%n",
+                duration / (double) TimeUnit.HOURS.toNanos(1), elapsed / 1e9, engine);
+        System.out.printf("Local ticks: %d, server ticks: %d, world hops: %d, phase jumps: %d, resyncs: %d%n",
+                localTicks, serverTicks, hops, phaseJumps, manager.getResyncCount());
+        System.out.printf("Phase error: p50 %.2fms, p99 %.2fms, min %.2fms, max %.2fms%n",
+                phaseErrors.getP50() / 1e6, phaseErrors.getP99() / 1e6, phaseErrors.getMin() / 1e6,
+                phaseErrors.getMax() / 1e6);
+        System.out.printf("Tick listener calls: %d, not on time: %d, final confidence: %.2f%n",
+                listenerCalls, listenerMisses, confidence);
+        System.out.printf("Audio lines opened: %d, closed: %d%n", NullMixer.getLinesOpened(), NullMixer.getLinesClosed());
+
+        boolean passed = true;
+        passed &= check(phaseErrors.getP99() <= MAX_P99_PHASE_ERROR, "p99 phase error within bounds");
+        passed &= check(Math.max(phaseErrors.getMax(), -phaseErrors.getMin()) <= MAX_PHASE_ERROR,
+                "max phase error within bounds");
+        passed &= check(manager.getResyncCount() <= phaseJumps, "no resyncs beyond the server's phase jumps");
+        passed &= check(localTicks >= serverTicks * 0.98, "local ticks kept up with the server");
+        passed &= check(listenerCalls >= localTicks * 0.98 && listenerMisses == 0, "tick listener called on time");
+        passed &= check(NullMixer.getLinesOpened() == NullMixer.getLinesClosed(), "every audio line was closed");
+        return passed;
+    }
+
+    /**
+     * Records how far the local tick landed from the nearest true server tick
+     */
+    private void onLocalTick()
+    {
+        localTicks++;
+        if (settleTicks > 0)
+        {
+            settleTicks--;
+            return;
+        }
+
+        // Where the tick was meant to land, the simulated wakeup lateness isn't the tick manager's doing
+        long fired = intendedWake;
+        while (serverTickAt(measureCursor) <= fired)
+        {
+            measureCursor++;
+        }
+        long sincePrevious = fired - serverTickAt(measureCursor - 1);
+        long untilNext = fired - serverTickAt(measureCursor);
+        phaseErrors.record(Math.abs(sincePrevious) < Math.abs(untilNext) ? sincePrevious : untilNext);
+    }
+
+    /**
+     * Gets the time of the given server tick, generating any up to it that don't exist yet.
+     * The period wanders by a third of a millisecond over a few hours and now and then the phase jumps.
+     */
+    private long serverTickAt(int index)
+    {
+        while (serverTicks <= index)
+        {
+            serverTickTimes[serverTicks % SERVER_TICK_HISTORY] = nextServerTick;
+            serverTicks++;
+
+            double hours = nextServerTick / (double) TimeUnit.HOURS.toNanos(1);
+            nextServerTick += NOMINAL_PERIOD + (long) (0.3 * MS * Math.sin(hours * Math.PI / 3));
+
+            if (serverTicks % PHASE_JUMP_EVERY == 0)
+            {
+                nextServerTick += (150 + random.nextInt(300)) * MS;
+                phaseJumps++;
+                settleTicks = SETTLE_TICKS;
+            }
+        }
+        return index < 0 ? Long.MIN_VALUE / 2 : serverTickTimes[index % SERVER_TICK_HISTORY];
+    }
+
+    /**
+     * When the client sees the given server tick: usually a millisecond or two of network jitter,
+     * sometimes a lag spike of up to 400ms, and about once an hour a three second freeze.
+     */
+    private long arrivalFor(long tick)
+    {
+        long delay = (long) (Math.abs(random.nextGaussian()) * 1.5 * MS);
+        int roll = random.nextInt(6000);
+        if (roll == 0)
+        {
+            delay += 3000 * MS;
+        }
+        else if (roll < 30)
+        {
+            delay += (50 + random.nextInt(350)) * MS;
+        }
+        return tick + delay;
+    }
+
+    /**
+     * How late the timing thread wakes: tens of microseconds normally, up to 20ms once in a while
+     */
+    private long wakeLateness()
+    {
+        if (random.nextInt(500) == 0)
+        {
+            return (5 + random.nextInt(15)) * MS;
+        }
+        return random.nextInt(50_000);
+    }
+
+    private static boolean check(boolean condition, String description)
+    {
+        System.out.println((condition ? "PASS " : "FAIL ") + description);
+        return condition;
+    }
+}
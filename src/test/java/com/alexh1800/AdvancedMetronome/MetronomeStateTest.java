@@ -0,0 +1,80 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.junit.Test;
+
+import java.util.function.IntUnaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetronomeStateTest
+{
+    // Beat 1 has four ticks, beat 2 has three
+    private final IntUnaryOperator ticksPerBeat = beat -> beat == 1 ? 4 : 3;
+
+    private final MetronomeState state = new MetronomeState();
+
+    @Test
+    public void advanceWrapsAfterTheBeatsLastTick()
+    {
+        state.setTickCount(3);
+        assertEquals(4, MetronomeState.tick(state.advanceTick(ticksPerBeat)));
+        assertEquals(1, MetronomeState.tick(state.advanceTick(ticksPerBeat)));
+
+        state.adjustBeat(1, 2);
+        state.setTickCount(3);
+        long snapshot = state.advanceTick(ticksPerBeat);
+        assertEquals(1, MetronomeState.tick(snapshot));
+        assertEquals(2, MetronomeState.beat(snapshot));
+    }
+
+    @Test
+    public void resetHoldsTheStartTick()
+    {
+        state.setTickCount(3);
+        state.holdReset(2);
+
+        long held = state.advanceTick(ticksPerBeat);
+        assertTrue(MetronomeState.isResetHeld(held));
+        assertEquals(2, MetronomeState.tick(held));
+        assertEquals(2, state.getTickCount());
+
+        state.releaseReset();
+        assertFalse(state.isResetHeld());
+        assertEquals(3, MetronomeState.tick(state.advanceTick(ticksPerBeat)));
+    }
+
+    @Test
+    public void adjustTickWrapsBothWays()
+    {
+        state.setTickCount(1);
+        state.adjustTick(-1, ticksPerBeat);
+        assertEquals(4, state.getTickCount());
+        state.adjustTick(6, ticksPerBeat);
+        assertEquals(2, state.getTickCount());
+    }
+
+    @Test
+    public void adjustBeatWrapsBothWays()
+    {
+        assertEquals(1, state.getBeatNumber());
+        state.adjustBeat(-1, 3);
+        assertEquals(3, state.getBeatNumber());
+        state.adjustBeat(2, 3);
+        assertEquals(2, state.getBeatNumber());
+    }
+
+    @Test
+    public void fieldsDontOverlap()
+    {
+        state.setTickCount(Integer.MAX_VALUE);
+        state.adjustBeat(1, 2);
+        state.holdReset(Integer.MAX_VALUE);
+
+        long snapshot = state.get();
+        assertEquals(Integer.MAX_VALUE, MetronomeState.tick(snapshot));
+        assertEquals(2, MetronomeState.beat(snapshot));
+        assertTrue(MetronomeState.isResetHeld(snapshot));
+    }
+}
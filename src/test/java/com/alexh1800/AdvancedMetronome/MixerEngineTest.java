@@ -0,0 +1,96 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MixerEngineTest
+{
+    /**
+     * Keeps everything mixed in memory
+     */
+    private static class MemorySink implements AudioSink
+    {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void open(AudioFormat format, int bufferBytes)
+        {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length)
+        {
+            written.write(buffer, offset, length);
+        }
+
+        @Override
+        public long getFramePosition()
+        {
+            return written.size() / MixerEngine.OUTPUT_FORMAT.getFrameSize();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * A sound whose every sample is its own frame number, so a skipped frame shows up as a jump
+     */
+    private static SoundData ramp(int frames)
+    {
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int frame = 0; frame < frames; frame++)
+        {
+            pcm.putShort((short) frame).putShort((short) frame);
+        }
+        pcm.flip();
+        return new SoundData(MixerEngine.OUTPUT_FORMAT, pcm);
+    }
+
+    private static byte[] render(SoundData sound, long startFrame, long... chunks)
+    {
+        MemorySink sink = new MemorySink();
+        MixerEngine mixer = new MixerEngine(sink);
+        mixer.open();
+        mixer.trigger(sound, startFrame);
+        for (long frames : chunks)
+        {
+            mixer.render(frames);
+        }
+        mixer.close();
+        return sink.written.toByteArray();
+    }
+
+    @Test
+    public void splitRenderMatchesOneRender()
+    {
+        SoundData sound = ramp(3000);
+        byte[] whole = render(sound, 50, 4000);
+
+        assertArrayEquals(whole, render(sound, 50, 100, 900, 3000));
+        assertArrayEquals(whole, render(sound, 50, 1, 255, 256, 257, 3231));
+    }
+
+    @Test
+    public void soundStartsOnItsFrameAndPlaysThrough()
+    {
+        byte[] output = render(ramp(1000), 300, 77, 500, 1000);
+
+        assertEquals(1577 * 4, output.length);
+        for (int frame = 0; frame < 1577; frame++)
+        {
+            int expected = frame >= 300 && frame < 1300 ? frame - 300 : 0;
+            short left = (short) ((output[frame * 4] & 0xFF) | (output[frame * 4 + 1] << 8));
+            assertEquals("frame " + frame, expected, left);
+        }
+    }
+}
@@ -0,0 +1,627 @@
+package com.alexh1800.AdvancedMetronome;
+
+import javax.sound.sampled.*;
+import javax.sound.sampled.spi.MixerProvider;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Java Sound mixer that plays nothing, for benchmarks and soak runs on machines without (or without wanting) a
+ * sound device. Source lines accept writes at the real-time rate of their format and Clips report STOP once their
+ * length has passed, so the engines behave as they would against real hardware. Every line opened and closed is
+ * counted so leaks show up.
+ * It's only offered to Java Sound when the advancedMetronome.nullMixer system property is true, and is made the
+ * default by also setting the javax.sound.sampled.Clip and javax.sound.sampled.SourceDataLine properties to
+ * PROPERTY_VALUE, which is all ENABLE_ARG, CLIP_ARG and SOURCE_LINE_ARG do.
+ */
+public class NullMixer implements Mixer
+{
+    static final String PROPERTY_VALUE = "com.alexh1800.AdvancedMetronome.NullMixer$Provider#Null Mixer";
+
+    // Everything needed on the command line to play through the null mixer, constants so they fit in annotations
+    static final String ENABLE_ARG = "-DadvancedMetronome.nullMixer=true";
+    static final String CLIP_ARG = "-Djavax.sound.sampled.Clip=" + PROPERTY_VALUE;
+    static final String SOURCE_LINE_ARG = "-Djavax.sound.sampled.SourceDataLine=" + PROPERTY_VALUE;
+
+    private static final Mixer.Info INFO = new Mixer.Info("Null Mixer", "Advanced Metronome", "Discards all audio", "1")
+    {
+    };
+
+    // Any 16 bit PCM, the engines only ever ask for that
+    private static final AudioFormat[] FORMATS = {
+            new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, AudioSystem.NOT_SPECIFIED, 16,
+                    AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, false),
+            new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, AudioSystem.NOT_SPECIFIED, 16,
+                    AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, AudioSystem.NOT_SPECIFIED, true),
+    };
+
+    private static final Line.Info[] SOURCE_LINES = {
+            new DataLine.Info(SourceDataLine.class, FORMATS, 32, AudioSystem.NOT_SPECIFIED),
+            new DataLine.Info(Clip.class, FORMATS, 32, AudioSystem.NOT_SPECIFIED),
+    };
+
+    private static final NullMixer INSTANCE = new NullMixer();
+
+    // Reports STOP for Clips once they've "played"
+    private static final ScheduledExecutorService STOP_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Null Mixer Clip Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final AtomicInteger linesOpened = new AtomicInteger();
+    private static final AtomicInteger linesClosed = new AtomicInteger();
+
+    /**
+     * Registered in META-INF/services so Java Sound finds the mixer
+     */
+    public static class Provider extends MixerProvider
+    {
+        @Override
+        public Mixer.Info[] getMixerInfo()
+        {
+            return Boolean.getBoolean("advancedMetronome.nullMixer") ? new Mixer.Info[] {INFO} : new Mixer.Info[0];
+        }
+
+        @Override
+        public Mixer getMixer(Mixer.Info info)
+        {
+            if (info == null || info == INFO)
+            {
+                return INSTANCE;
+            }
+            throw new IllegalArgumentException("Not the null mixer: " + info);
+        }
+    }
+
+    static int getLinesOpened()
+    {
+        return linesOpened.get();
+    }
+
+    static int getLinesClosed()
+    {
+        return linesClosed.get();
+    }
+
+    @Override
+    public Mixer.Info getMixerInfo()
+    {
+        return INFO;
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo()
+    {
+        return SOURCE_LINES.clone();
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo()
+    {
+        return new Line.Info[0];
+    }
+
+    @Override
+    public Line.Info[] getSourceLineInfo(Line.Info info)
+    {
+        return isLineSupported(info) ? new Line.Info[] {info} : new Line.Info[0];
+    }
+
+    @Override
+    public Line.Info[] getTargetLineInfo(Line.Info info)
+    {
+        return new Line.Info[0];
+    }
+
+    @Override
+    public boolean isLineSupported(Line.Info info)
+    {
+        for (Line.Info supported : SOURCE_LINES)
+        {
+            if (info.matches(supported))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Line getLine(Line.Info info) throws LineUnavailableException
+    {
+        if (info.getLineClass() == SourceDataLine.class && isLineSupported(info))
+        {
+            return new NullSourceDataLine();
+        }
+        if (info.getLineClass() == Clip.class && isLineSupported(info))
+        {
+            return new NullClip();
+        }
+        throw new IllegalArgumentException("Unsupported line: " + info);
+    }
+
+    @Override
+    public int getMaxLines(Line.Info info)
+    {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public Line[] getSourceLines()
+    {
+        return new Line[0];
+    }
+
+    @Override
+    public Line[] getTargetLines()
+    {
+        return new Line[0];
+    }
+
+    @Override
+    public void synchronize(Line[] lines, boolean maintainSync)
+    {
+        throw new IllegalArgumentException("Synchronization not supported");
+    }
+
+    @Override
+    public void unsynchronize(Line[] lines)
+    {
+        throw new IllegalArgumentException("Synchronization not supported");
+    }
+
+    @Override
+    public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync)
+    {
+        return false;
+    }
+
+    @Override
+    public Line.Info getLineInfo()
+    {
+        return new Line.Info(Mixer.class);
+    }
+
+    @Override
+    public void open()
+    {
+        // Always open
+    }
+
+    @Override
+    public void close()
+    {
+        // Always open
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return true;
+    }
+
+    @Override
+    public Control[] getControls()
+    {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control)
+    {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control)
+    {
+        throw new IllegalArgumentException("No controls");
+    }
+
+    @Override
+    public void addLineListener(LineListener listener)
+    {
+        // Mixer events are never sent
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener)
+    {
+        // Mixer events are never sent
+    }
+
+    /**
+     * The parts shared by both kinds of line: open state, a playback clock that runs between start and stop,
+     * and line events.
+     */
+    private abstract static class NullLine implements DataLine
+    {
+        private final List<LineListener> listeners = new CopyOnWriteArrayList<>();
+
+        protected volatile AudioFormat format;
+        protected volatile int bufferSize;
+        private volatile boolean open = false;
+        private volatile boolean running = false;
+
+        // Frames played before the last start, and when it started
+        private long playedBeforeStart = 0;
+        private long startedAt = 0;
+
+        protected void opened(AudioFormat format, int bufferSize)
+        {
+            this.format = format;
+            this.bufferSize = bufferSize;
+            open = true;
+            linesOpened.incrementAndGet();
+            send(LineEvent.Type.OPEN);
+        }
+
+        @Override
+        public void close()
+        {
+            if (!open)
+            {
+                return;
+            }
+            stop();
+            open = false;
+            linesClosed.incrementAndGet();
+            send(LineEvent.Type.CLOSE);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        @Override
+        public synchronized void start()
+        {
+            if (open && !running)
+            {
+                startedAt = System.nanoTime();
+                running = true;
+                send(LineEvent.Type.START);
+            }
+        }
+
+        @Override
+        public synchronized void stop()
+        {
+            if (running)
+            {
+                playedBeforeStart = playedFrames();
+                running = false;
+                send(LineEvent.Type.STOP);
+            }
+        }
+
+        @Override
+        public boolean isRunning()
+        {
+            return running;
+        }
+
+        @Override
+        public boolean isActive()
+        {
+            return running;
+        }
+
+        /**
+         * Frames the playback clock has passed, not limited to what was actually written
+         */
+        protected synchronized long playedFrames()
+        {
+            if (!running)
+            {
+                return playedBeforeStart;
+            }
+            double elapsed = (System.nanoTime() - startedAt) / 1_000_000_000d;
+            return playedBeforeStart + (long) (elapsed * format.getFrameRate());
+        }
+
+        protected synchronized void resetClock(long frame)
+        {
+            playedBeforeStart = frame;
+            startedAt = System.nanoTime();
+        }
+
+        protected void send(LineEvent.Type type)
+        {
+            LineEvent event = new LineEvent(this, type, getLongFramePosition());
+            for (LineListener listener : listeners)
+            {
+                listener.update(event);
+            }
+        }
+
+        @Override
+        public int getFramePosition()
+        {
+            return (int) getLongFramePosition();
+        }
+
+        @Override
+        public long getMicrosecondPosition()
+        {
+            AudioFormat current = format;
+            return current == null ? 0 : (long) (getLongFramePosition() * 1_000_000d / current.getFrameRate());
+        }
+
+        @Override
+        public AudioFormat getFormat()
+        {
+            return format;
+        }
+
+        @Override
+        public int getBufferSize()
+        {
+            return bufferSize;
+        }
+
+        @Override
+        public float getLevel()
+        {
+            return AudioSystem.NOT_SPECIFIED;
+        }
+
+        @Override
+        public void open()
+        {
+            throw new UnsupportedOperationException("Open with a format");
+        }
+
+        @Override
+        public Control[] getControls()
+        {
+            return new Control[0];
+        }
+
+        @Override
+        public boolean isControlSupported(Control.Type control)
+        {
+            return false;
+        }
+
+        @Override
+        public Control getControl(Control.Type control)
+        {
+            throw new IllegalArgumentException("No controls");
+        }
+
+        @Override
+        public void addLineListener(LineListener listener)
+        {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeLineListener(LineListener listener)
+        {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Accepts writes no faster than the format's frame rate, keeping at most a buffer's worth queued like a real line
+     */
+    private static class NullSourceDataLine extends NullLine implements SourceDataLine
+    {
+        private long framesWritten = 0; // Only the writing thread touches this
+
+        @Override
+        public void open(AudioFormat format, int bufferSize)
+        {
+            opened(format, bufferSize - bufferSize % format.getFrameSize());
+        }
+
+        @Override
+        public void open(AudioFormat format)
+        {
+            open(format, (int) format.getFrameRate() / 2 * format.getFrameSize());
+        }
+
+        @Override
+        public int write(byte[] b, int off, int len)
+        {
+            int frameSize = format.getFrameSize();
+            long frames = len / frameSize;
+            long bufferFrames = bufferSize / frameSize;
+
+            // Block until the clock has played enough that the write fits in the buffer
+            while (isOpen())
+            {
+                long queued = framesWritten - playedFrames();
+                long excess = queued + frames - bufferFrames;
+                if (excess <= 0)
+                {
+                    break;
+                }
+                LockSupport.parkNanos((long) (excess * 1_000_000_000d / format.getFrameRate()));
+            }
+
+            if (!isOpen())
+            {
+                return 0;
+            }
+            framesWritten += frames;
+            return (int) (frames * frameSize);
+        }
+
+        @Override
+        public long getLongFramePosition()
+        {
+            return Math.min(framesWritten, playedFrames());
+        }
+
+        @Override
+        public int available()
+        {
+            int frameSize = format.getFrameSize();
+            long queued = Math.max(0, framesWritten - playedFrames());
+            return (int) Math.max(0, bufferSize - queued * frameSize);
+        }
+
+        @Override
+        public void drain()
+        {
+            while (isOpen() && isRunning() && playedFrames() < framesWritten)
+            {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+            framesWritten = playedFrames();
+        }
+
+        @Override
+        public Line.Info getLineInfo()
+        {
+            return SOURCE_LINES[0];
+        }
+    }
+
+    /**
+     * Plays its data once per start, reporting STOP when it would have finished
+     */
+    private static class NullClip extends NullLine implements Clip
+    {
+        private volatile int frameLength = 0;
+        private int generation = 0; // Bumped on every start/stop so a stale STOP timer does nothing
+
+        @Override
+        public void open(AudioFormat format, byte[] data, int offset, int bufferSize)
+        {
+            frameLength = bufferSize / format.getFrameSize();
+            opened(format, bufferSize);
+        }
+
+        @Override
+        public void open(AudioInputStream stream) throws LineUnavailableException
+        {
+            try
+            {
+                byte[] data = stream.readAllBytes();
+                open(stream.getFormat(), data, 0, data.length);
+            }
+            catch (IOException e)
+            {
+                throw new LineUnavailableException(e.getMessage());
+            }
+        }
+
+        @Override
+        public synchronized void start()
+        {
+            if (!isOpen() || isRunning())
+            {
+                return;
+            }
+            super.start();
+
+            int started = ++generation;
+            long remaining = Math.max(0, frameLength - playedFrames());
+            long delay = (long) (remaining * 1_000_000d / format.getFrameRate());
+            STOP_TIMER.schedule(() -> finish(started), delay, TimeUnit.MICROSECONDS);
+        }
+
+        @Override
+        public synchronized void stop()
+        {
+            generation++;
+            super.stop();
+        }
+
+        private synchronized void finish(int started)
+        {
+            if (started == generation && isRunning())
+            {
+                super.stop();
+                resetClock(frameLength);
+            }
+        }
+
+        @Override
+        public long getLongFramePosition()
+        {
+            return Math.min(frameLength, playedFrames());
+        }
+
+        @Override
+        public int getFrameLength()
+        {
+            return frameLength;
+        }
+
+        @Override
+        public long getMicrosecondLength()
+        {
+            AudioFormat current = format;
+            return current == null ? 0 : (long) (frameLength * 1_000_000d / current.getFrameRate());
+        }
+
+        @Override
+        public synchronized void setFramePosition(int frame)
+        {
+            resetClock(Math.max(0, Math.min(frameLength, frame)));
+        }
+
+        @Override
+        public void setMicrosecondPosition(long microseconds)
+        {
+            setFramePosition((int) (microseconds * format.getFrameRate() / 1_000_000d));
+        }
+
+        @Override
+        public void setLoopPoints(int start, int end)
+        {
+            // Looping isn't used by the engines
+        }
+
+        @Override
+        public void loop(int count)
+        {
+            start();
+        }
+
+        @Override
+        public int available()
+        {
+            return 0;
+        }
+
+        @Override
+        public void drain()
+        {
+            while (isRunning())
+            {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+            // Nothing is buffered
+        }
+
+        @Override
+        public Line.Info getLineInfo()
+        {
+            return SOURCE_LINES[1];
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders a metronome pattern to a WAV file through the mixer without a sound card, for listening to exactly what
+ * the engine produces or diffing it against an earlier render. The same arguments always give the same file, on any
+ * machine, since the mixer's sample rate is fixed rather than picked to suit the output device.
+ * Usage: PatternRender output.wav [cycles] [tick period in ms] [custom pattern] [sample rate], defaults to 4 cycles
+ * of the default Beat 1 and Beat 2 sounds at 600ms and 44100Hz. Exits with 1 if the file can't be written.
+ */
+public class PatternRender
+{
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: PatternRender <output.wav> [cycles] [tick period ms] [pattern] [sample rate]");
+            System.exit(1);
+        }
+
+        // This has to happen before anything loads the mixer
+        System.setProperty(MixerEngine.SAMPLE_RATE_PROPERTY, args.length > 4 ? args[4] : "44100");
+
+        File output = new File(args[0]);
+        int cycles = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double periodMs = args.length > 2 ? Double.parseDouble(args[2]) : 600;
+        String pattern = args.length > 3 ? args[3] : "";
+
+        AdvancedMetronomeConfig config = new AdvancedMetronomeConfig()
+        {
+            @Override
+            public String customPattern()
+            {
+                return pattern;
+            }
+        };
+        SoundManager soundManager = new SoundManager(config, new AudioClipManager(new TelemetryRecorder()));
+        soundManager.updatePattern();
+
+        long started = System.nanoTime();
+        long periodNanos = (long) (periodMs * TimeUnit.MILLISECONDS.toNanos(1));
+        boolean rendered = soundManager.render(cycles, periodNanos, new WavCaptureSink(output));
+        long elapsed = System.nanoTime() - started;
+
+        if (!rendered)
+        {
+            System.exit(1);
+        }
+        System.out.printf("Rendered %d cycles at %.1fms per tick to %s as %s in %.0fms%n", cycles, periodMs, output,
+                MixerEngine.OUTPUT_FORMAT, elapsed / 1e6);
+        System.exit(0);
+    }
+}
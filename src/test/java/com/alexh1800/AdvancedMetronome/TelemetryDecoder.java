@@ -0,0 +1,98 @@
+package com.alexh1800.AdvancedMetronome;
+
+import java.io.*;
+
+/**
+ * Converts a telemetry file written by TelemetryRecorder into CSV, one row per record.
+ * Usage: TelemetryDecoder telemetry-20250101-120000.bin [output.csv], the CSV goes to stdout if no output is given.
+ * The meaning of value1 and value2 depends on the event, see the event types in TelemetryRecorder.
+ */
+public class TelemetryDecoder
+{
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: TelemetryDecoder <telemetry.bin> [output.csv]");
+            System.exit(1);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+             Writer out = args.length > 1
+                     ? new BufferedWriter(new FileWriter(args[1]))
+                     : new BufferedWriter(new OutputStreamWriter(System.out)))
+        {
+            decode(in, out);
+        }
+    }
+
+    /**
+     * Reads the header and every complete record from the input and writes them as CSV rows.
+     * @throws IOException if the input isn't a telemetry file this version can read
+     */
+    public static void decode(DataInputStream in, Writer out) throws IOException
+    {
+        int magic = in.readInt();
+        int version = in.readInt();
+        int recordSize = in.readInt();
+        in.readInt(); // Reserved
+
+        if (magic != TelemetryRecorder.MAGIC || version != TelemetryRecorder.VERSION
+                || recordSize != TelemetryRecorder.RECORD_SIZE)
+        {
+            throw new IOException("Not a version " + TelemetryRecorder.VERSION + " telemetry file");
+        }
+
+        out.write("event,id,nano_time,value1,value2\n");
+        while (true)
+        {
+            int type;
+            try
+            {
+                type = in.readInt();
+            }
+            catch (EOFException e)
+            {
+                break;
+            }
+
+            // A record cut short by the client closing is left out
+            int id;
+            long nanoTime;
+            long value1;
+            long value2;
+            try
+            {
+                id = in.readInt();
+                nanoTime = in.readLong();
+                value1 = in.readLong();
+                value2 = in.readLong();
+            }
+            catch (EOFException e)
+            {
+                break;
+            }
+
+            out.write(eventName(type) + "," + id + "," + nanoTime + "," + value1 + "," + value2 + "\n");
+        }
+    }
+
+    private static String eventName(int type)
+    {
+        switch (type)
+        {
+            case TelemetryRecorder.GAME_TICK:
+                return "game_tick";
+            case TelemetryRecorder.GAME_TICK_IGNORED:
+                return "game_tick_ignored";
+            case TelemetryRecorder.LOCAL_TICK:
+                return "local_tick";
+            case TelemetryRecorder.SOUND_LOADED:
+                return "sound_loaded";
+            case TelemetryRecorder.TRIGGER_DROPPED:
+                return "trigger_dropped";
+            default:
+                return "unknown_" + type;
+        }
+    }
+}
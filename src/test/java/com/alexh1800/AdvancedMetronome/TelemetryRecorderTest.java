@@ -0,0 +1,69 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TelemetryRecorderTest
+{
+    private File directory;
+
+    @After
+    public void tearDown()
+    {
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        if (directory != null)
+        {
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void decodesWhatWasRecorded() throws IOException
+    {
+        directory = Files.createTempDirectory("telemetry").toFile();
+        TelemetryRecorder recorder = new TelemetryRecorder(directory);
+
+        recorder.record(TelemetryRecorder.GAME_TICK, 0, 1, 2, 3); // Dropped, not enabled yet
+        recorder.setEnabled(true);
+        recorder.record(TelemetryRecorder.GAME_TICK, 1, 600_000_000L, 600_100_000L, -250_000L);
+        recorder.record(TelemetryRecorder.LOCAL_TICK, 1, 600_500_000L, 600_000_000L, 40_000L);
+        recorder.record(TelemetryRecorder.SOUND_LOADED, 7, Long.MAX_VALUE, 88_200L, 1_500_000L);
+        recorder.setEnabled(false);
+
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+
+        StringWriter csv = new StringWriter();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(files[0]))))
+        {
+            TelemetryDecoder.decode(in, csv);
+        }
+
+        assertArrayEquals(new String[] {
+                "event,id,nano_time,value1,value2",
+                "game_tick,1,600000000,600100000,-250000",
+                "local_tick,1,600500000,600000000,40000",
+                "sound_loaded,7," + Long.MAX_VALUE + ",88200,1500000"
+        }, csv.toString().split("\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException
+    {
+        byte[] notTelemetry = new byte[64];
+        TelemetryDecoder.decode(new DataInputStream(new ByteArrayInputStream(notTelemetry)), new StringWriter());
+    }
+}
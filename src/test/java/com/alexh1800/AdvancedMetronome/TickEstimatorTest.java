@@ -0,0 +1,118 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TickEstimatorTest
+{
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long START = TimeUnit.SECONDS.toNanos(1);
+
+    private final TickEstimator estimator = new TickEstimator();
+
+    /**
+     * Adds arrivals for the given server ticks of a steady cadence
+     */
+    private void addSteady(long period, int from, int to)
+    {
+        for (int tick = from; tick < to; tick++)
+        {
+            assertTrue("tick " + tick + " used", estimator.addArrival(START + tick * period));
+        }
+    }
+
+    @Test
+    public void fitsTheServerPeriod()
+    {
+        long period = 600 * MS + 300_000;
+        addSteady(period, 0, 40);
+
+        assertEquals(period, estimator.getPeriod(), 1000);
+        long last = START + 39 * period;
+        assertEquals(last + period, estimator.predictAfter(last + MS), 1000);
+    }
+
+    @Test
+    public void predictsOneNominalPeriodWithNoArrivals()
+    {
+        assertEquals(START + TickEstimator.NOMINAL_PERIOD, estimator.predictAfter(START));
+    }
+
+    @Test
+    public void ignoresALagSpike()
+    {
+        long period = TickEstimator.NOMINAL_PERIOD;
+        addSteady(period, 0, 20);
+
+        assertFalse(estimator.addArrival(START + 20 * period + 200 * MS));
+        assertEquals(200 * MS, estimator.getLastError());
+
+        addSteady(period, 21, 25);
+        long last = START + 24 * period;
+        assertEquals(last + period, estimator.predictAfter(last + MS), 1000);
+    }
+
+    @Test
+    public void ignoresTicksBunchedBehindAFrozenClient()
+    {
+        long period = TickEstimator.NOMINAL_PERIOD;
+        addSteady(period, 0, 20);
+
+        // Ticks 20 to 23 all turn up together with tick 24, which is on time
+        long thawed = START + 24 * period;
+        for (int tick = 20; tick < 24; tick++)
+        {
+            assertFalse("tick " + tick + " ignored", estimator.addArrival(thawed + (tick - 24) * 10_000));
+        }
+        assertTrue(estimator.addArrival(thawed));
+
+        assertEquals(thawed + period, estimator.predictAfter(thawed + MS), 1000);
+    }
+
+    @Test
+    public void relocksWhenThePhaseMoves()
+    {
+        long period = TickEstimator.NOMINAL_PERIOD;
+        addSteady(period, 0, 20);
+
+        // The server's ticks move 250ms later and stay there, the fourth in a row is taken as the new phase
+        long shift = 250 * MS;
+        for (int tick = 20; tick < 23; tick++)
+        {
+            assertFalse("tick " + tick + " ignored", estimator.addArrival(START + tick * period + shift));
+        }
+        long relocked = START + 23 * period + shift;
+        assertTrue(estimator.addArrival(relocked));
+
+        assertEquals(relocked + period, estimator.predictAfter(relocked + MS), 1000);
+    }
+
+    @Test
+    public void confidenceGrowsWithSteadyArrivals()
+    {
+        assertEquals(0, estimator.getConfidence(), 0);
+
+        addSteady(TickEstimator.NOMINAL_PERIOD, 0, 8);
+        double partial = estimator.getConfidence();
+        addSteady(TickEstimator.NOMINAL_PERIOD, 8, 40);
+
+        assertTrue(partial > 0 && partial < estimator.getConfidence());
+        assertEquals(1, estimator.getConfidence(), 0.01);
+    }
+
+    @Test
+    public void confidenceDropsWithJitter()
+    {
+        for (int tick = 0; tick < 40; tick++)
+        {
+            // Alternating 3ms early and late
+            estimator.addArrival(START + tick * TickEstimator.NOMINAL_PERIOD + (tick % 2 == 0 ? 3 : -3) * MS);
+        }
+        assertTrue(estimator.getConfidence() < 0.5);
+    }
+}
@@ -0,0 +1,87 @@
+package com.alexh1800.AdvancedMetronome;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TickHistogramTest
+{
+    @Test
+    public void emptyReportsZero()
+    {
+        TickHistogram histogram = new TickHistogram(600);
+        assertEquals(0, histogram.getP50());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void smallDistancesAreExact()
+    {
+        TickHistogram histogram = new TickHistogram(0);
+        for (int i = 1; i <= 50; i++)
+        {
+            histogram.record(i);
+        }
+        assertEquals(25, histogram.getP50());
+        assertEquals(50, histogram.getP99());
+        assertEquals(1, histogram.getMin());
+        assertEquals(50, histogram.getMax());
+    }
+
+    @Test
+    public void percentilesWithinThreePercentOfTheDistance()
+    {
+        long origin = 600_000_000;
+        TickHistogram histogram = new TickHistogram(origin);
+        for (int i = 1; i <= 1000; i++)
+        {
+            histogram.record(origin + i * 1000L);
+        }
+
+        assertEquals(500_000, histogram.getP50() - origin, 500_000 * 0.03);
+        assertEquals(990_000, histogram.getP99() - origin, 990_000 * 0.03);
+        assertEquals(origin + 1000, histogram.getMin());
+        assertEquals(origin + 1_000_000, histogram.getMax());
+    }
+
+    @Test
+    public void valuesBelowTheOrigin()
+    {
+        TickHistogram histogram = new TickHistogram(0);
+        for (int i = -100_000; i <= 100_000; i += 1000)
+        {
+            histogram.record(i);
+        }
+
+        assertEquals(0, histogram.getP50(), 100);
+        assertEquals(-98_000, histogram.getPercentile(0.01), 98_000 * 0.03);
+        assertEquals(-100_000, histogram.getMin());
+        assertEquals(100_000, histogram.getMax());
+    }
+
+    @Test
+    public void percentilesNeverPassTheValuesSeen()
+    {
+        TickHistogram histogram = new TickHistogram(0);
+        histogram.record(1_000_001);
+        assertEquals(1_000_001, histogram.getP50());
+        assertEquals(1_000_001, histogram.getP99());
+    }
+
+    @Test
+    public void resetClearsEverything()
+    {
+        TickHistogram histogram = new TickHistogram(0);
+        histogram.record(5);
+        histogram.record(-5);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        histogram.record(7);
+        assertEquals(7, histogram.getP50());
+        assertEquals(7, histogram.getMin());
+    }
+}